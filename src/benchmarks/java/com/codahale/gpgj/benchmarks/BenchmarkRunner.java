@@ -0,0 +1,29 @@
+package com.codahale.gpgj.benchmarks;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks with the GC profiler enabled, so that allocation rates are reported
+ * alongside throughput and latency. Accepts all the standard JMH command line options.
+ */
+public final class BenchmarkRunner {
+    private BenchmarkRunner() { /* singleton */ }
+
+    public static void main(String[] args) throws Exception {
+        final CommandLineOptions options = new CommandLineOptions(args);
+        if (options.shouldHelp() || options.shouldList() || options.shouldListWithParams() ||
+                options.shouldListProfilers() || options.shouldListResultFormats()) {
+            Main.main(args);
+            return;
+        }
+
+        new Runner(new OptionsBuilder()
+                           .parent(options)
+                           .addProfiler(GCProfiler.class)
+                           .build()).run();
+    }
+}
@@ -0,0 +1,75 @@
+package com.codahale.gpgj.benchmarks;
+
+import com.codahale.gpgj.CryptographicException;
+import com.codahale.gpgj.KeySet;
+import com.codahale.gpgj.KeySetReader;
+import com.codahale.gpgj.KeySetWriter;
+import com.codahale.gpgj.UnlockedKeySet;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of loading, unlocking, and relocking a {@link KeySet}, both on a single
+ * thread and with every available core contending.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class KeySetBenchmark {
+    private static final char[] NEW_PASSPHRASE = "new benchmark".toCharArray();
+
+    private UnlockedKeySet unlockedKeySet;
+    private KeySet keySet;
+    private byte[] encoded;
+    private SecureRandom random;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.unlockedKeySet = KeySets.get(1).get(0);
+        this.encoded = new KeySetWriter().toByteArray(unlockedKeySet);
+        this.keySet = new KeySetReader().read(encoded);
+        this.random = new SecureRandom();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public KeySet read() throws CryptographicException, IOException {
+        return new KeySetReader().read(encoded);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public KeySet readConcurrently() throws CryptographicException, IOException {
+        return read();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public UnlockedKeySet unlock() throws CryptographicException {
+        return keySet.unlock(KeySets.PASSPHRASE);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public UnlockedKeySet unlockConcurrently() throws CryptographicException {
+        return unlock();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public KeySet relock() throws CryptographicException {
+        return unlockedKeySet.relock(KeySets.PASSPHRASE, NEW_PASSPHRASE, random);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public KeySet relockConcurrently() throws CryptographicException {
+        return relock();
+    }
+}
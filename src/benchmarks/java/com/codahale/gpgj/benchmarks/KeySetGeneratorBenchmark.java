@@ -0,0 +1,90 @@
+package com.codahale.gpgj.benchmarks;
+
+import com.codahale.gpgj.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of {@link KeySetGenerator#generate(String, char[])} for each pairing of
+ * master and sub key generators, and for a range of executor sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class KeySetGeneratorBenchmark {
+    @Param({"rsa2048", "rsa4096", "dsa1024", "dsa2048", "dsa3072"})
+    String masterKeyGenerator;
+
+    @Param({"rsa2048", "rsa4096", "elgamal1536", "elgamal2048", "elgamal4096", "elgamal8192"})
+    String subKeyGenerator;
+
+    @Param({"1", "2", "4"})
+    int executorThreads;
+
+    private ExecutorService executor;
+    private KeySetGenerator generator;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        KeySets.get(0); // registers the provider
+        this.executor = Executors.newFixedThreadPool(executorThreads);
+        this.generator = new KeySetGenerator(new SecureRandom(),
+                                             executor,
+                                             masterKeyGenerator(masterKeyGenerator),
+                                             subKeyGenerator(subKeyGenerator),
+                                             SymmetricAlgorithm.DEFAULT);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public KeySet generate() throws CryptographicException {
+        return generator.generate("Benchmark <benchmark@example.com>", KeySets.PASSPHRASE);
+    }
+
+    private static MasterKeyGenerator masterKeyGenerator(String name) {
+        switch (name) {
+            case "rsa2048":
+                return RsaKeyGenerator.rsa2048();
+            case "rsa4096":
+                return RsaKeyGenerator.rsa4096();
+            case "dsa1024":
+                return DsaKeyGenerator.dsa1024();
+            case "dsa2048":
+                return DsaKeyGenerator.dsa2048();
+            case "dsa3072":
+                return DsaKeyGenerator.dsa3072();
+            default:
+                throw new IllegalArgumentException("Unknown master key generator: " + name);
+        }
+    }
+
+    private static SubKeyGenerator subKeyGenerator(String name) {
+        switch (name) {
+            case "rsa2048":
+                return RsaKeyGenerator.rsa2048();
+            case "rsa4096":
+                return RsaKeyGenerator.rsa4096();
+            case "elgamal1536":
+                return ElgamalKeyGenerator.elgamal1536();
+            case "elgamal2048":
+                return ElgamalKeyGenerator.elgamal2048();
+            case "elgamal4096":
+                return ElgamalKeyGenerator.elgamal4096();
+            case "elgamal8192":
+                return ElgamalKeyGenerator.elgamal8192();
+            default:
+                throw new IllegalArgumentException("Unknown sub key generator: " + name);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.codahale.gpgj.benchmarks;
+
+import com.codahale.gpgj.KeySet;
+import com.codahale.gpgj.KeySetGenerator;
+import com.codahale.gpgj.UnlockedKeySet;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import java.security.SecureRandom;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generates and caches the key sets used by the benchmarks, since generating hundreds of them is
+ * far slower than anything being measured.
+ */
+final class KeySets {
+    static final char[] PASSPHRASE = "benchmark".toCharArray();
+    private static final List<UnlockedKeySet> KEY_SETS = new ArrayList<>();
+
+    static {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    private KeySets() { /* singleton */ }
+
+    /**
+     * Returns {@code count} distinct unlocked key sets with the default key sizes.
+     */
+    static synchronized List<UnlockedKeySet> get(int count) throws Exception {
+        if (KEY_SETS.size() < count) {
+            final int threads = Runtime.getRuntime().availableProcessors();
+            final ExecutorService keyPool = Executors.newFixedThreadPool(threads * 2);
+            final ExecutorService workers = Executors.newFixedThreadPool(threads);
+            try {
+                final KeySetGenerator generator = new KeySetGenerator(new SecureRandom(), keyPool);
+                final List<Future<UnlockedKeySet>> futures = new ArrayList<>();
+                for (int i = KEY_SETS.size(); i < count; i++) {
+                    final String userId = "Benchmark " + i + " <benchmark" + i + "@example.com>";
+                    futures.add(workers.submit(new Callable<UnlockedKeySet>() {
+                        @Override
+                        public UnlockedKeySet call() throws Exception {
+                            return generator.generate(userId, PASSPHRASE).unlock(PASSPHRASE);
+                        }
+                    }));
+                }
+
+                for (Future<UnlockedKeySet> future : futures) {
+                    KEY_SETS.add(future.get());
+                }
+            } finally {
+                workers.shutdown();
+                keyPool.shutdown();
+            }
+        }
+        return new ArrayList<>(KEY_SETS.subList(0, count));
+    }
+
+    /**
+     * Returns the first {@code count} key sets, the first of which is the owner.
+     */
+    static List<KeySet> recipients(int count) throws Exception {
+        return new ArrayList<KeySet>(get(count));
+    }
+}
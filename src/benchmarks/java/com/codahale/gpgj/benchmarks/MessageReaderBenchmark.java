@@ -0,0 +1,60 @@
+package com.codahale.gpgj.benchmarks;
+
+import com.codahale.gpgj.CompressionAlgorithm;
+import com.codahale.gpgj.CryptographicException;
+import com.codahale.gpgj.HashAlgorithm;
+import com.codahale.gpgj.MessageReader;
+import com.codahale.gpgj.MessageWriter;
+import com.codahale.gpgj.SymmetricAlgorithm;
+import com.codahale.gpgj.UnlockedKeySet;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput and latency of {@link MessageReader#read(byte[])}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class MessageReaderBenchmark {
+    @Param({"1024", "65536", "1048576", "16777216", "268435456"})
+    int payloadSize;
+
+    @Param({"AES_256", "AES_192", "AES_128"})
+    SymmetricAlgorithm symmetricAlgorithm;
+
+    @Param({"SHA_512", "SHA_256", "SHA_384", "SHA_224", "SHA_1"})
+    HashAlgorithm hashAlgorithm;
+
+    @Param({"ZLIB", "BZIP2", "ZIP"})
+    CompressionAlgorithm compressionAlgorithm;
+
+    @Param({"1", "10", "100", "1000"})
+    int recipientCount;
+
+    private MessageReader reader;
+    private byte[] encrypted;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        final UnlockedKeySet owner = KeySets.get(1).get(0);
+        final MessageWriter writer = new MessageWriter(owner,
+                                                       KeySets.recipients(recipientCount),
+                                                       new SecureRandom(),
+                                                       symmetricAlgorithm,
+                                                       hashAlgorithm,
+                                                       compressionAlgorithm);
+        this.encrypted = writer.write(Payloads.generate(payloadSize));
+        this.reader = new MessageReader(owner, owner);
+    }
+
+    @Benchmark
+    public byte[] read() throws CryptographicException {
+        return reader.read(encrypted);
+    }
+}
@@ -0,0 +1,77 @@
+package com.codahale.gpgj.benchmarks;
+
+import com.codahale.gpgj.CompressionAlgorithm;
+import com.codahale.gpgj.CryptographicException;
+import com.codahale.gpgj.HashAlgorithm;
+import com.codahale.gpgj.MessageWriter;
+import com.codahale.gpgj.RecipientSet;
+import com.codahale.gpgj.SymmetricAlgorithm;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput and latency of {@link MessageWriter#write(byte[])}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class MessageWriterBenchmark {
+    @Param({"1024", "65536", "1048576", "16777216", "268435456"})
+    int payloadSize;
+
+    @Param({"AES_256", "AES_192", "AES_128"})
+    SymmetricAlgorithm symmetricAlgorithm;
+
+    @Param({"SHA_512", "SHA_256", "SHA_384", "SHA_224", "SHA_1"})
+    HashAlgorithm hashAlgorithm;
+
+    @Param({"ZLIB", "BZIP2", "ZIP"})
+    CompressionAlgorithm compressionAlgorithm;
+
+    @Param({"1", "10", "100", "1000"})
+    int recipientCount;
+
+    /**
+     * The number of threads on which to encrypt session keys, or 0 to use the calling thread.
+     */
+    @Param({"0", "4"})
+    int executorThreads;
+
+    private ExecutorService executor;
+    private MessageWriter writer;
+    private byte[] body;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        if (executorThreads > 0) {
+            this.executor = Executors.newFixedThreadPool(executorThreads);
+        }
+        this.writer = new MessageWriter(KeySets.get(1).get(0),
+                                        new RecipientSet(KeySets.recipients(recipientCount)),
+                                        new SecureRandom(),
+                                        symmetricAlgorithm,
+                                        hashAlgorithm,
+                                        compressionAlgorithm,
+                                        executor);
+        this.body = Payloads.generate(payloadSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    @Benchmark
+    public byte[] write() throws CryptographicException {
+        return writer.write(body);
+    }
+}
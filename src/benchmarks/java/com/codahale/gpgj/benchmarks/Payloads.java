@@ -0,0 +1,24 @@
+package com.codahale.gpgj.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Generates message bodies for the benchmarks.
+ */
+final class Payloads {
+    private Payloads() { /* singleton */ }
+
+    /**
+     * Returns a body of the given size which is half random bytes and half text, so that
+     * compression has something to work with without dominating the measurement.
+     */
+    static byte[] generate(int size) {
+        final Random random = new Random(size);
+        final byte[] body = new byte[size];
+        random.nextBytes(body);
+        for (int i = 0; i < size; i += 2) {
+            body[i] = (byte) ('a' + (i % 26));
+        }
+        return body;
+    }
+}
@@ -0,0 +1,13 @@
+package com.codahale.gpgj;
+
+/**
+ * A stream which can be given up on part-way through, so that a message whose body couldn't be
+ * read is left incomplete rather than finished with a valid signature and integrity packet.
+ */
+interface Abandonable {
+    /**
+     * Releases the stream's resources without finishing it or writing anything more. Does nothing
+     * if the stream has already been closed or abandoned.
+     */
+    void abandon();
+}
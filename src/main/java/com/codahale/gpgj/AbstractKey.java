@@ -1,9 +1,14 @@
 package com.codahale.gpgj;
 
+import org.bouncycastle.bcpg.BCPGInputStream;
+import org.bouncycastle.bcpg.S2K;
+import org.bouncycastle.bcpg.SecretKeyPacket;
 import org.bouncycastle.openpgp.PGPPublicKey;
 import org.bouncycastle.openpgp.PGPSecretKey;
 import org.bouncycastle.openpgp.PGPSignature;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -122,6 +127,26 @@ public abstract class AbstractKey {
         return String.format("%d-%s/%s", getSize(), getAlgorithm(), getHumanKeyID());
     }
 
+    /**
+     * Returns the number of bytes hashed to derive the key which protects this key's secret key,
+     * or {@code 0} if it is not protected by an iterated-and-salted S2K function.
+     *
+     * @see S2KIterations
+     */
+    public long getS2KIterationCount() {
+        try {
+            final BCPGInputStream input =
+                    new BCPGInputStream(new ByteArrayInputStream(secretKey.getEncoded()));
+            final S2K s2k = ((SecretKeyPacket) input.readPacket()).getS2K();
+            if (s2k == null || s2k.getType() != S2K.SALTED_AND_ITERATED) {
+                return 0;
+            }
+            return s2k.getIterationCount();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Returns a set of {@link KeyFlag}s associated with this key.
      */
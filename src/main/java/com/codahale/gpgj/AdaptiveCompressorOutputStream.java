@@ -0,0 +1,91 @@
+package com.codahale.gpgj;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream which samples the first data written to it, and then picks a compressor based
+ * on how compressible the sample looks.
+ * <p/>
+ * Compressibility is estimated from the sample's order-0 entropy: data which already uses almost
+ * all of each byte, like JPEGs and gzipped files, won't shrink enough to be worth compressing.
+ */
+abstract class AdaptiveCompressorOutputStream extends OutputStream implements Abandonable {
+    static final int SAMPLE_SIZE = 1 << 16; // 64KB
+    static final double MAX_COMPRESSIBLE_ENTROPY = 7.5; // bits per byte
+    private final byte[] sample = new byte[SAMPLE_SIZE];
+    private int sampled;
+    private OutputStream out;
+
+    /**
+     * Opens the compressor to which all data will be written.
+     *
+     * @param compressible whether or not the data looks compressible
+     * @return the compressor
+     * @throws IOException if there is an error opening the compressor
+     */
+    protected abstract OutputStream open(boolean compressible) throws IOException;
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (out == null) {
+            final int n = Math.min(len, SAMPLE_SIZE - sampled);
+            System.arraycopy(b, off, sample, sampled, n);
+            sampled += n;
+            off += n;
+            len -= n;
+
+            if (sampled == SAMPLE_SIZE) {
+                decide();
+            }
+        }
+
+        if (len > 0) {
+            out.write(b, off, len);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (out == null) {
+            decide();
+        }
+        out.close();
+    }
+
+    @Override
+    public void abandon() {
+        if (out instanceof Abandonable) {
+            ((Abandonable) out).abandon();
+        }
+    }
+
+    private void decide() throws IOException {
+        this.out = open(entropy(sample, 0, sampled) <= MAX_COMPRESSIBLE_ENTROPY);
+        out.write(sample, 0, sampled);
+    }
+
+    /**
+     * Returns the order-0 Shannon entropy of the given bytes, in bits per byte.
+     */
+    static double entropy(byte[] b, int off, int len) {
+        final int[] counts = new int[256];
+        for (int i = off; i < off + len; i++) {
+            counts[b[i] & 0xFF]++;
+        }
+
+        double entropy = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                final double p = (double) count / len;
+                entropy -= p * Math.log(p);
+            }
+        }
+        return entropy / Math.log(2);
+    }
+}
@@ -0,0 +1,449 @@
+package com.codahale.gpgj;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Re-keys every message in an archive of files with a {@link MessageRekeyer}, in parallel.
+ * <p/>
+ * Each file is re-keyed into a temporary file in the same directory, which is flushed to disk and
+ * then atomically moved over the original, so a file is always either entirely re-keyed or
+ * untouched. Once the move has been flushed to disk, the path of each re-keyed file is appended to
+ * a checkpoint file, which is itself flushed to disk, and files listed in the checkpoint file are
+ * skipped, so a job which is interrupted can be resumed by running it again with the same
+ * checkpoint file. Files which can't be re-keyed, and files and directories which can't be read
+ * while walking an archive, are reported to the {@link Listener} and left as they are, and will be
+ * retried when the job is resumed. Re-keying a file twice is harmless, so a file which was
+ * re-keyed just before a crash but not recorded in the checkpoint file will simply be re-keyed
+ * again.
+ * <p/>
+ * The checkpoint file holds one line per re-keyed file, and all of them are held in memory while
+ * the job runs.
+ */
+public class ArchiveRekeyer {
+    /**
+     * A listener which is notified of a job's progress.
+     */
+    public interface Listener {
+        /**
+         * Called periodically while a job runs, and once when it finishes.
+         *
+         * @param progress the job's progress so far
+         */
+        void onProgress(Progress progress);
+
+        /**
+         * Called when a file can't be re-keyed.
+         *
+         * @param file  the file
+         * @param cause the reason the file couldn't be re-keyed
+         */
+        void onFailure(Path file, Exception cause);
+    }
+
+    /**
+     * A snapshot of a job's progress.
+     */
+    public static final class Progress {
+        private final long rekeyed;
+        private final long skipped;
+        private final long failed;
+        private final long bytes;
+        private final long elapsed;
+
+        Progress(long rekeyed, long skipped, long failed, long bytes, long elapsed) {
+            this.rekeyed = rekeyed;
+            this.skipped = skipped;
+            this.failed = failed;
+            this.bytes = bytes;
+            this.elapsed = elapsed;
+        }
+
+        /**
+         * Returns the number of files which have been re-keyed.
+         */
+        public long getRekeyed() {
+            return rekeyed;
+        }
+
+        /**
+         * Returns the number of files which were skipped because they had already been re-keyed.
+         */
+        public long getSkipped() {
+            return skipped;
+        }
+
+        /**
+         * Returns the number of files which couldn't be re-keyed.
+         */
+        public long getFailed() {
+            return failed;
+        }
+
+        /**
+         * Returns the total size of the files which have been re-keyed, in bytes.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Returns the time since the job started, in the given unit.
+         */
+        public long getElapsed(TimeUnit unit) {
+            return unit.convert(elapsed, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Returns the number of files re-keyed per second.
+         */
+        public double getFilesPerSecond() {
+            return perSecond(rekeyed);
+        }
+
+        /**
+         * Returns the number of bytes re-keyed per second.
+         */
+        public double getBytesPerSecond() {
+            return perSecond(bytes);
+        }
+
+        private double perSecond(long count) {
+            if (elapsed <= 0) {
+                return 0;
+            }
+            return count / (elapsed / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d re-keyed, %d skipped, %d failed, %.1f files/s, %.1f MB/s",
+                                 rekeyed, skipped, failed,
+                                 getFilesPerSecond(), getBytesPerSecond() / (1 << 20));
+        }
+    }
+
+    private static final String TEMP_SUFFIX = ".rekey.tmp";
+    private static final int BUFFER_SIZE = 1 << 16;
+    private final MessageRekeyer rekeyer;
+    private final Executor executor;
+    private final int parallelism;
+    private final Path checkpoint;
+    private final Listener listener;
+    private final long reportInterval;
+    private final Clock clock;
+
+    /**
+     * Creates a new archive re-keyer.
+     *
+     * @param rekeyer        the re-keyer to apply to each file
+     * @param executor       an executor on which to re-key files
+     * @param parallelism    the maximum number of files to re-key at once
+     * @param checkpoint     the file in which to record re-keyed files
+     * @param listener       the listener to notify of the job's progress
+     * @param reportInterval the time between progress reports
+     * @param unit           the unit of {@code reportInterval}
+     */
+    public ArchiveRekeyer(MessageRekeyer rekeyer,
+                          Executor executor,
+                          int parallelism,
+                          Path checkpoint,
+                          Listener listener,
+                          long reportInterval,
+                          TimeUnit unit) {
+        this(rekeyer, executor, parallelism, checkpoint, listener, unit.toNanos(reportInterval),
+             Clock.SYSTEM);
+    }
+
+    ArchiveRekeyer(MessageRekeyer rekeyer,
+                   Executor executor,
+                   int parallelism,
+                   Path checkpoint,
+                   Listener listener,
+                   long reportInterval,
+                   Clock clock) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.rekeyer = rekeyer;
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.checkpoint = checkpoint;
+        this.listener = listener;
+        this.reportInterval = reportInterval;
+        this.clock = clock;
+    }
+
+    /**
+     * Re-keys every regular file in a directory tree, other than the checkpoint file and any
+     * temporary files left behind by an interrupted job, whose names end in {@code .rekey.tmp}.
+     *
+     * @param root the root of the directory tree
+     * @return the job's final progress
+     * @throws IOException          if there is an error writing the checkpoint file
+     * @throws InterruptedException if the calling thread is interrupted
+     */
+    public Progress run(Path root) throws IOException, InterruptedException {
+        try (final Job job = new Job()) {
+            final Path checkpointFile = checkpoint.toAbsolutePath().normalize();
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    // temporary files can't be deleted here, as they may belong to this job
+                    if (attrs.isRegularFile() &&
+                            !file.getFileName().toString().endsWith(TEMP_SUFFIX) &&
+                            !file.toAbsolutePath().normalize().equals(checkpointFile)) {
+                        try {
+                            job.submit(file);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return FileVisitResult.TERMINATE;
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    job.fail(file, e);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+                    if (e != null) {
+                        job.fail(dir, e);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            return job.finish();
+        }
+    }
+
+    /**
+     * Re-keys the given files.
+     *
+     * @param files the files to re-key
+     * @return the job's final progress
+     * @throws IOException          if there is an error writing the checkpoint file
+     * @throws InterruptedException if the calling thread is interrupted
+     */
+    public Progress run(Iterable<Path> files) throws IOException, InterruptedException {
+        try (final Job job = new Job()) {
+            for (Path file : files) {
+                job.submit(file);
+            }
+            return job.finish();
+        }
+    }
+
+    private static Set<String> readCheckpoint(Path checkpoint) throws IOException {
+        final Set<String> completed = new HashSet<>();
+        if (!Files.exists(checkpoint)) {
+            return completed;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(checkpoint, StandardCharsets.UTF_8)) {
+            // only accept newline-terminated entries, in case a crash left a partial line behind
+            final StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = reader.read()) >= 0) {
+                if (c == '\n') {
+                    completed.add(line.toString());
+                    line.setLength(0);
+                } else {
+                    line.append((char) c);
+                }
+            }
+        }
+        return completed;
+    }
+
+    private static String key(Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+
+    private long rekey(Path file) throws CryptographicException, IOException {
+        final Path temp = Files.createTempFile(file.toAbsolutePath().getParent(),
+                                               "." + file.getFileName(),
+                                               TEMP_SUFFIX);
+        try {
+            try (InputStream input = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE);
+                 FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                final OutputStream output = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+                rekeyer.rekey(input, output);
+                output.flush();
+                channel.force(true);
+            }
+
+            try {
+                Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(file));
+            } catch (UnsupportedOperationException ignored) {
+                // not a POSIX file system
+            }
+
+            final long size = Files.size(file);
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            force(file.toAbsolutePath().getParent());
+            return size;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /*
+     * Flushes a directory's entries to disk, so that a file moved into it stays moved after a crash.
+     * Some platforms, like Windows, can't open directories, and make moves durable themselves.
+     */
+    private static void force(Path directory) throws IOException {
+        final FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+
+        try (FileChannel dir = channel) {
+            dir.force(true);
+        }
+    }
+
+    /**
+     * A single run of the re-keyer.
+     */
+    private class Job implements AutoCloseable {
+        private final Set<String> completed;
+        private final FileChannel checkpointChannel;
+        private final Semaphore permits = new Semaphore(parallelism);
+        private final AtomicLong rekeyed = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final long start = clock.nanoTime();
+        private long lastReport = start;
+
+        private Job() throws IOException {
+            this.completed = readCheckpoint(checkpoint);
+            final boolean created = !Files.exists(checkpoint);
+            this.checkpointChannel = FileChannel.open(checkpoint,
+                                                      StandardOpenOption.CREATE,
+                                                      StandardOpenOption.WRITE,
+                                                      StandardOpenOption.APPEND);
+            if (created) {
+                force(checkpoint.toAbsolutePath().getParent());
+            }
+        }
+
+        private void submit(final Path file) throws InterruptedException {
+            final String key = key(file);
+            if (completed.contains(key)) {
+                skipped.incrementAndGet();
+                return;
+            }
+
+            permits.acquire();
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            process(file, key);
+                        } finally {
+                            permits.release();
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        private void process(Path file, String key) {
+            try {
+                final long size = rekey(file);
+                record(key);
+                rekeyed.incrementAndGet();
+                bytes.addAndGet(size);
+            } catch (CryptographicException | IOException | RuntimeException e) {
+                fail(file, e);
+            }
+            maybeReport();
+        }
+
+        private void fail(Path file, Exception e) {
+            failed.incrementAndGet();
+            listener.onFailure(file, e);
+        }
+
+        /*
+         * The entry is only written once the file's move has been flushed to disk, and is itself
+         * flushed before the file is counted, so the checkpoint never lists a file which a crash
+         * could leave un-rekeyed.
+         */
+        private void record(String key) throws IOException {
+            final ByteBuffer entry = StandardCharsets.UTF_8.encode(key + '\n');
+            synchronized (checkpointChannel) {
+                while (entry.hasRemaining()) {
+                    checkpointChannel.write(entry);
+                }
+                checkpointChannel.force(true);
+            }
+        }
+
+        private void maybeReport() {
+            final long now = clock.nanoTime();
+            synchronized (this) {
+                if (now - lastReport < reportInterval) {
+                    return;
+                }
+                this.lastReport = now;
+            }
+            listener.onProgress(progress());
+        }
+
+        private Progress progress() {
+            return new Progress(rekeyed.get(), skipped.get(), failed.get(), bytes.get(),
+                                clock.nanoTime() - start);
+        }
+
+        private Progress finish() throws InterruptedException {
+            permits.acquire(parallelism); // wait for the outstanding files
+            permits.release(parallelism);
+
+            final Progress progress = progress();
+            listener.onProgress(progress);
+            return progress;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // don't close the checkpoint file out from under files which are still being re-keyed
+            permits.acquireUninterruptibly(parallelism);
+            permits.release(parallelism);
+            checkpointChannel.close();
+        }
+    }
+}
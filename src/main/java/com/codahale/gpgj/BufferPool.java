@@ -0,0 +1,143 @@
+package com.codahale.gpgj;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A bounded, lock-free pool of buffers, {@link Deflater}s, and {@link Inflater}s, so that reading
+ * and writing messages doesn't allocate them anew for every message.
+ * <p/>
+ * Buffers are zeroed before being pooled, since they may have held plaintext. Deflaters and
+ * inflaters hold native memory, so they are reset before being pooled, and any which don't fit in
+ * the pool are ended immediately rather than being left for the garbage collector.
+ * <p/>
+ * Once an object has been released to the pool, the caller must not use it again.
+ */
+class BufferPool {
+    /**
+     * The pool shared by all readers and writers.
+     */
+    static final BufferPool SHARED = new BufferPool(Runtime.getRuntime().availableProcessors() * 4);
+
+    private final int capacity;
+    private final ConcurrentMap<Integer, Bin<byte[]>> buffers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, Bin<Deflater>> deflaters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Boolean, Bin<Inflater>> inflaters = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new pool.
+     *
+     * @param capacity the maximum number of idle objects of each kind and size to keep
+     */
+    BufferPool(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns a zeroed buffer of the given size.
+     */
+    byte[] acquire(int size) {
+        final byte[] buffer = bin(buffers, size).poll();
+        return (buffer == null) ? new byte[size] : buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool.
+     */
+    void release(byte[] buffer) {
+        Arrays.fill(buffer, (byte) 0);
+        bin(buffers, buffer.length).offer(buffer);
+    }
+
+    /**
+     * Returns a deflater with the given settings.
+     *
+     * @param level  the compression level
+     * @param nowrap whether to write raw DEFLATE data rather than ZLIB data
+     */
+    Deflater acquireDeflater(int level, boolean nowrap) {
+        final Deflater deflater = bin(deflaters, deflaterKey(level, nowrap)).poll();
+        return (deflater == null) ? new Deflater(level, nowrap) : deflater;
+    }
+
+    /**
+     * Returns a deflater to the pool. The settings must be those it was acquired with.
+     */
+    void release(Deflater deflater, int level, boolean nowrap) {
+        deflater.reset();
+        if (!bin(deflaters, deflaterKey(level, nowrap)).offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Returns an inflater with the given settings.
+     *
+     * @param nowrap whether to read raw DEFLATE data rather than ZLIB data
+     */
+    Inflater acquireInflater(boolean nowrap) {
+        final Inflater inflater = bin(inflaters, nowrap).poll();
+        return (inflater == null) ? new Inflater(nowrap) : inflater;
+    }
+
+    /**
+     * Returns an inflater to the pool. The setting must be the one it was acquired with.
+     */
+    void release(Inflater inflater, boolean nowrap) {
+        inflater.reset();
+        if (!bin(inflaters, nowrap).offer(inflater)) {
+            inflater.end();
+        }
+    }
+
+    private static int deflaterKey(int level, boolean nowrap) {
+        return (level << 1) | (nowrap ? 1 : 0);
+    }
+
+    private <K, T> Bin<T> bin(ConcurrentMap<K, Bin<T>> bins, K key) {
+        final Bin<T> bin = bins.get(key);
+        if (bin != null) {
+            return bin;
+        }
+
+        final Bin<T> created = new Bin<>(capacity);
+        final Bin<T> existing = bins.putIfAbsent(key, created);
+        return (existing == null) ? created : existing;
+    }
+
+    /**
+     * A bounded stack of idle objects. The most recently released object is reused first, since
+     * it's the most likely to still be in a CPU cache.
+     */
+    private static class Bin<T> {
+        private final ConcurrentLinkedDeque<T> idle = new ConcurrentLinkedDeque<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final int capacity;
+
+        private Bin(int capacity) {
+            this.capacity = capacity;
+        }
+
+        T poll() {
+            final T t = idle.pollFirst();
+            if (t != null) {
+                size.decrementAndGet();
+            }
+            return t;
+        }
+
+        boolean offer(T t) {
+            if (size.incrementAndGet() > capacity) {
+                size.decrementAndGet();
+                return false;
+            }
+            idle.offerFirst(t);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.codahale.gpgj;
+
+import org.bouncycastle.bcpg.PublicKeyAlgorithmTags;
+import org.bouncycastle.crypto.AsymmetricBlockCipher;
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.encodings.PKCS1Encoding;
+import org.bouncycastle.crypto.engines.ElGamalEngine;
+import org.bouncycastle.crypto.engines.RSABlindedEngine;
+import org.bouncycastle.crypto.params.AsymmetricKeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithRandom;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.operator.PublicKeyKeyEncryptionMethodGenerator;
+
+import java.security.SecureRandom;
+
+/**
+ * A {@link PublicKeyKeyEncryptionMethodGenerator} which encrypts session keys with an
+ * already-converted public key, rather than converting the {@link PGPPublicKey} for every message
+ * as {@link org.bouncycastle.openpgp.operator.bc.BcPublicKeyKeyEncryptionMethodGenerator} does.
+ * Only supports RSA and Elgamal keys.
+ */
+class CachedKeyEncryptionMethodGenerator extends PublicKeyKeyEncryptionMethodGenerator {
+    private final AsymmetricKeyParameter key;
+    private final SecureRandom random;
+
+    CachedKeyEncryptionMethodGenerator(PGPPublicKey publicKey,
+                                       AsymmetricKeyParameter key,
+                                       SecureRandom random) {
+        super(publicKey);
+        this.key = key;
+        this.random = random;
+    }
+
+    /**
+     * Returns {@code true} if session keys can be encrypted with keys of the given algorithm.
+     */
+    static boolean isSupported(int algorithm) {
+        switch (algorithm) {
+            case PublicKeyAlgorithmTags.RSA_GENERAL:
+            case PublicKeyAlgorithmTags.RSA_ENCRYPT:
+            case PublicKeyAlgorithmTags.ELGAMAL_ENCRYPT:
+            case PublicKeyAlgorithmTags.ELGAMAL_GENERAL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    protected byte[] encryptSessionInfo(PGPPublicKey publicKey, byte[] sessionInfo) throws PGPException {
+        final AsymmetricBlockCipher cipher;
+        switch (publicKey.getAlgorithm()) {
+            case PublicKeyAlgorithmTags.RSA_GENERAL:
+            case PublicKeyAlgorithmTags.RSA_ENCRYPT:
+                cipher = new PKCS1Encoding(new RSABlindedEngine());
+                break;
+            case PublicKeyAlgorithmTags.ELGAMAL_ENCRYPT:
+            case PublicKeyAlgorithmTags.ELGAMAL_GENERAL:
+                cipher = new PKCS1Encoding(new ElGamalEngine());
+                break;
+            default:
+                throw new PGPException("Unsupported algorithm: " + publicKey.getAlgorithm());
+        }
+
+        try {
+            cipher.init(true, new ParametersWithRandom(key, random));
+            return cipher.processBlock(sessionInfo, 0, sessionInfo.length);
+        } catch (InvalidCipherTextException e) {
+            throw new PGPException("Error encrypting session info", e);
+        }
+    }
+}
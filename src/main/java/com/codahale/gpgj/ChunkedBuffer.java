@@ -0,0 +1,108 @@
+package com.codahale.gpgj;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A buffer for data of unknown size, read directly into a list of chunks rather than into a single
+ * array which is copied each time it grows. Each chunk is as large as the chunks before it put
+ * together, up to a maximum chunk size, and the chunks are only copied into a single array once
+ * all the data has been read.
+ */
+class ChunkedBuffer {
+    private final int initialChunkSize;
+    private final int maxChunkSize;
+    private final long limit;
+    private final List<byte[]> chunks = new ArrayList<>();
+    private byte[] chunk;
+    private int count;
+    private long size;
+
+    /**
+     * Creates a new buffer.
+     *
+     * @param initialChunkSize the size of the first chunk
+     * @param maxChunkSize     the largest size of any chunk
+     * @param limit            the most data the buffer will hold
+     */
+    ChunkedBuffer(int initialChunkSize, int maxChunkSize, long limit) {
+        this.initialChunkSize = initialChunkSize;
+        this.maxChunkSize = maxChunkSize;
+        this.limit = limit;
+        this.chunk = new byte[(int) Math.min(limit, initialChunkSize)];
+    }
+
+    /**
+     * Reads some data from the given input stream into the buffer.
+     *
+     * @param input an input stream
+     * @return the number of bytes read, or {@code -1} if the end of {@code input} was reached
+     * @throws IOException           if there is an error reading from {@code input}
+     * @throws IllegalStateException if the buffer is full
+     */
+    int readFrom(InputStream input) throws IOException {
+        if (count == chunk.length) {
+            if (isFull()) {
+                throw new IllegalStateException("Buffer is full");
+            }
+            chunks.add(chunk);
+            chunk = new byte[(int) Math.min(limit - size,
+                                            Math.min(maxChunkSize, Math.max(initialChunkSize, size)))];
+            count = 0;
+        }
+
+        final int r = input.read(chunk, count, chunk.length - count);
+        if (r > 0) {
+            count += r;
+            size += r;
+        }
+        return r;
+    }
+
+    /**
+     * Returns {@code true} if the buffer holds as much data as it can.
+     */
+    boolean isFull() {
+        return size >= limit;
+    }
+
+    /**
+     * Returns the amount of data in the buffer.
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Returns the data in the buffer as a single array.
+     *
+     * @throws IllegalStateException if the buffer holds more data than fits in an array
+     */
+    byte[] toByteArray() {
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Buffer is too large for an array");
+        }
+
+        final byte[] b = new byte[(int) size];
+        int offset = 0;
+        for (byte[] full : chunks) {
+            System.arraycopy(full, 0, b, offset, full.length);
+            offset += full.length;
+        }
+        System.arraycopy(chunk, 0, b, offset, count);
+        return b;
+    }
+
+    /**
+     * Writes the data in the buffer to the given output stream.
+     */
+    void writeTo(OutputStream output) throws IOException {
+        for (byte[] full : chunks) {
+            output.write(full);
+        }
+        output.write(chunk, 0, count);
+    }
+}
@@ -0,0 +1,21 @@
+package com.codahale.gpgj;
+
+/**
+ * A source of monotonic time, so that time-dependent classes can be tested.
+ */
+interface Clock {
+    /**
+     * A clock backed by {@link System#nanoTime()}.
+     */
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * Returns the current value of the clock, in nanoseconds.
+     */
+    long nanoTime();
+}
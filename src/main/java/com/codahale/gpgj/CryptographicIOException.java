@@ -0,0 +1,20 @@
+package com.codahale.gpgj;
+
+import java.io.IOException;
+
+/**
+ * An {@link IOException} which carries a {@link CryptographicException} through the stream APIs,
+ * which can only throw {@link IOException}s.
+ */
+class CryptographicIOException extends IOException {
+    private static final long serialVersionUID = -4431307520441326530L;
+
+    CryptographicIOException(CryptographicException cause) {
+        super(cause.getMessage(), cause);
+    }
+
+    @Override
+    public synchronized CryptographicException getCause() {
+        return (CryptographicException) super.getCause();
+    }
+}
@@ -0,0 +1,260 @@
+package com.codahale.gpgj;
+
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.engines.AESFastEngine;
+import org.bouncycastle.crypto.modes.GCMBlockCipher;
+import org.bouncycastle.crypto.params.AEADParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * A temporary file whose contents are encrypted with a random key which is only ever held in
+ * memory, so that data spilled to disk is unreadable by anyone else and is lost once the file is
+ * closed.
+ * <p/>
+ * The data is encrypted in chunks with AES-GCM, each with a nonce made of the chunk's index and a
+ * flag marking the last chunk, so that chunks which have been modified, reordered, or truncated
+ * are detected as they're read, before any of their data is returned.
+ */
+class EncryptedTempFile implements Closeable {
+    static final int CHUNK_SIZE = 1 << 16; // 64KB
+    private static final int KEY_SIZE = 32;
+    private static final int NONCE_SIZE = 12;
+    private static final int TAG_SIZE = 16;
+    private final File file;
+    private final KeyParameter key;
+    private long size = -1;
+
+    /**
+     * Creates a new temporary file.
+     *
+     * @param directory the directory in which to create the file, or {@code null} for the default
+     *                  temporary directory
+     * @param random    a {@link SecureRandom} instance
+     * @throws IOException if the file could not be created
+     */
+    EncryptedTempFile(File directory, SecureRandom random) throws IOException {
+        this.file = File.createTempFile("gpgj", ".tmp", directory);
+        final byte[] k = new byte[KEY_SIZE];
+        random.nextBytes(k);
+        this.key = new KeyParameter(k);
+        Arrays.fill(k, (byte) 0);
+    }
+
+    /**
+     * Returns an output stream which encrypts everything written to it to the file. The file can
+     * only be written once, and is only complete once the returned stream has been closed.
+     *
+     * @throws IOException if the file could not be opened
+     */
+    OutputStream openOutputStream() throws IOException {
+        return new EncryptingOutputStream(new BufferedOutputStream(new FileOutputStream(file), CHUNK_SIZE));
+    }
+
+    /**
+     * Returns an input stream of the file's decrypted contents. If the file has been modified, the
+     * stream throws an {@link IOException} before returning any of the modified chunk.
+     *
+     * @throws IOException if the file could not be opened
+     */
+    InputStream openInputStream() throws IOException {
+        if (size < 0) {
+            throw new IOException("Temporary file is incomplete");
+        }
+        return new DecryptingInputStream(new FileInputStream(file), file.length());
+    }
+
+    /**
+     * Returns the size of the file's decrypted contents, or {@code -1} if the file is incomplete.
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Deletes the file and forgets its key.
+     */
+    @Override
+    public void close() {
+        Arrays.fill(key.getKey(), (byte) 0);
+        if (!file.delete() && file.exists()) {
+            file.deleteOnExit();
+        }
+    }
+
+    private GCMBlockCipher cipher(boolean forEncryption, long index, boolean last) {
+        final byte[] nonce = new byte[NONCE_SIZE];
+        for (int i = 0; i < 8; i++) {
+            nonce[i] = (byte) (index >>> (56 - 8 * i));
+        }
+        nonce[NONCE_SIZE - 1] = (byte) (last ? 1 : 0);
+
+        final GCMBlockCipher cipher = new GCMBlockCipher(new AESFastEngine());
+        cipher.init(forEncryption, new AEADParameters(key, TAG_SIZE * 8, nonce));
+        return cipher;
+    }
+
+    /**
+     * Encrypts each chunk once the next has begun, or the stream is closed, so that the last chunk
+     * is known to be the last.
+     */
+    private class EncryptingOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final byte[] chunk = new byte[CHUNK_SIZE];
+        private final byte[] encrypted = new byte[CHUNK_SIZE + TAG_SIZE];
+        private int count;
+        private long index;
+        private long written;
+        private boolean closed;
+
+        private EncryptingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+
+            while (len > 0) {
+                if (count == chunk.length) {
+                    writeChunk(false);
+                }
+                final int n = Math.min(len, chunk.length - count);
+                System.arraycopy(b, off, chunk, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            try {
+                writeChunk(true);
+            } finally {
+                Arrays.fill(chunk, (byte) 0);
+                out.close();
+            }
+            size = written;
+        }
+
+        private void writeChunk(boolean last) throws IOException {
+            final GCMBlockCipher cipher = cipher(true, index++, last);
+            int n = cipher.processBytes(chunk, 0, count, encrypted, 0);
+            try {
+                n += cipher.doFinal(encrypted, n);
+            } catch (InvalidCipherTextException e) {
+                throw new IOException(e);
+            }
+            out.write(encrypted, 0, n);
+            written += count;
+            count = 0;
+        }
+    }
+
+    /**
+     * Decrypts and authenticates a whole chunk at a time.
+     */
+    private class DecryptingInputStream extends InputStream {
+        private final InputStream in;
+        private final byte[] encrypted = new byte[CHUNK_SIZE + TAG_SIZE];
+        private final byte[] chunk = new byte[CHUNK_SIZE + TAG_SIZE];
+        private long remaining;
+        private long index;
+        private int count;
+        private int position;
+        private boolean done;
+
+        private DecryptingInputStream(InputStream in, long length) {
+            this.in = in;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            final int r = read(b, 0, 1);
+            return (r < 0) ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+
+            while (position == count) {
+                if (done) {
+                    return -1;
+                }
+                readChunk();
+            }
+
+            final int n = Math.min(len, count - position);
+            System.arraycopy(chunk, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return count - position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            Arrays.fill(chunk, (byte) 0);
+            in.close();
+        }
+
+        private void readChunk() throws IOException {
+            final int length = (int) Math.min(encrypted.length, remaining);
+            if (length < TAG_SIZE) {
+                throw new EOFException("Temporary file has been truncated");
+            }
+
+            int n = 0;
+            while (n < length) {
+                final int r = in.read(encrypted, n, length - n);
+                if (r < 0) {
+                    throw new EOFException("Temporary file has been truncated");
+                }
+                n += r;
+            }
+            remaining -= length;
+            this.done = remaining == 0;
+
+            final GCMBlockCipher cipher = cipher(false, index++, done);
+            try {
+                count = cipher.processBytes(encrypted, 0, length, chunk, 0);
+                count += cipher.doFinal(chunk, count);
+            } catch (InvalidCipherTextException e) {
+                throw new IOException("Temporary file has been modified", e);
+            }
+            position = 0;
+        }
+    }
+}
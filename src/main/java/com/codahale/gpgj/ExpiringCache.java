@@ -0,0 +1,172 @@
+package com.codahale.gpgj;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * A size-bounded LRU cache whose entries expire after a period of inactivity or after an absolute
+ * lifetime, whichever comes first. Evicted values are passed to an {@link EvictionListener} so
+ * that any secrets they hold can be destroyed.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+class ExpiringCache<K, V> {
+    /**
+     * A listener which is notified of every value which leaves the cache.
+     *
+     * @param <V> the value type
+     */
+    interface EvictionListener<V> {
+        void onEviction(V value);
+    }
+
+    private final int maxEntries;
+    private final long idleTimeout;
+    private final long absoluteTimeout;
+    private final Clock clock;
+    private final EvictionListener<? super V> listener;
+    private final LinkedHashMap<K, Entry> entries;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxEntries      the maximum number of entries
+     * @param idleTimeout     the time, in nanoseconds, after which unused entries expire
+     * @param absoluteTimeout the time, in nanoseconds, after which all entries expire
+     * @param clock           the source of time
+     * @param listener        the listener to notify of evictions
+     */
+    ExpiringCache(int maxEntries,
+                  long idleTimeout,
+                  long absoluteTimeout,
+                  Clock clock,
+                  EvictionListener<? super V> listener) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.idleTimeout = idleTimeout;
+        this.absoluteTimeout = absoluteTimeout;
+        this.clock = clock;
+        this.listener = listener;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true); // access order, for LRU
+    }
+
+    /**
+     * Returns the value for {@code key}, or {@code null} if there is no unexpired entry for it.
+     */
+    V get(K key) {
+        final List<V> evicted = new ArrayList<>(1);
+        final V value;
+        synchronized (this) {
+            final long now = clock.nanoTime();
+            final Entry entry = entries.get(key);
+            if (entry == null) {
+                value = null;
+            } else if (entry.isExpired(now)) {
+                entries.remove(key);
+                evicted.add(entry.value);
+                value = null;
+            } else {
+                entry.accessedAt = now;
+                value = entry.value;
+            }
+        }
+        evict(evicted);
+        return value;
+    }
+
+    /**
+     * Adds an entry, evicting any entry it replaces, and the least-recently used entries while
+     * they're either expired or beyond the size bound. Only the least-recently used end of the
+     * cache is checked, so any other expired entries are left to be evicted when they're next
+     * looked up.
+     */
+    void put(K key, V value) {
+        final List<V> evicted = new ArrayList<>();
+        synchronized (this) {
+            final long now = clock.nanoTime();
+            final Entry old = entries.put(key, new Entry(value, now));
+            if (old != null && old.value != value) {
+                evicted.add(old.value);
+            }
+
+            final Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                final Entry entry = iterator.next();
+                if (entries.size() <= maxEntries && !entry.isExpired(now)) {
+                    break;
+                }
+                iterator.remove();
+                evicted.add(entry.value);
+            }
+        }
+        evict(evicted);
+    }
+
+    /**
+     * Removes the entry for {@code key}, if any.
+     */
+    void remove(K key) {
+        final Entry entry;
+        synchronized (this) {
+            entry = entries.remove(key);
+        }
+        if (entry != null) {
+            listener.onEviction(entry.value);
+        }
+    }
+
+    /**
+     * Removes every entry.
+     */
+    void clear() {
+        final List<V> evicted = new ArrayList<>();
+        synchronized (this) {
+            for (Entry entry : entries.values()) {
+                evicted.add(entry.value);
+            }
+            entries.clear();
+        }
+        evict(evicted);
+    }
+
+    /**
+     * Returns the number of entries, including any which have expired but not yet been evicted.
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns a snapshot of the keys, including any which have expired but not yet been evicted.
+     */
+    synchronized List<K> keys() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    private void evict(List<V> values) {
+        for (V value : values) {
+            listener.onEviction(value);
+        }
+    }
+
+    private class Entry {
+        private final V value;
+        private final long createdAt;
+        private long accessedAt;
+
+        private Entry(V value, long now) {
+            this.value = value;
+            this.createdAt = now;
+            this.accessedAt = now;
+        }
+
+        private boolean isExpired(long now) {
+            return (now - accessedAt >= idleTimeout) || (now - createdAt >= absoluteTimeout);
+        }
+    }
+}
@@ -1,9 +1,15 @@
 package com.codahale.gpgj;
 
+import org.bouncycastle.openpgp.PGPException;
 import org.bouncycastle.openpgp.PGPSecretKey;
 import org.bouncycastle.openpgp.PGPSecretKeyRing;
+import org.bouncycastle.openpgp.operator.PBESecretKeyDecryptor;
 
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
 /**
  * A {@link MasterKey} and {@link SubKey} pair.
@@ -49,10 +55,63 @@ public class KeySet implements Locked<UnlockedKeySet> {
         return String.format("[%s, %s]", masterKey, subKey);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * If the master key and sub key were encrypted with the same S2K parameters (as all key sets
+     * generated by {@link KeySetGenerator} are), the passphrase is only derived once.
+     */
     @Override
     public UnlockedKeySet unlock(char[] passphrase) throws CryptographicException {
-        final UnlockedMasterKey unlockedMasterKey = masterKey.unlock(passphrase);
-        final UnlockedSubKey unlockedSubKey = subKey.unlock(passphrase);
+        final PBESecretKeyDecryptor decryptor = getDecryptor(passphrase);
+        final UnlockedMasterKey unlockedMasterKey = masterKey.unlock(decryptor);
+        final UnlockedSubKey unlockedSubKey = subKey.unlock(decryptor);
         return new UnlockedKeySet(unlockedMasterKey, unlockedSubKey);
     }
+
+    /**
+     * Given the key set's passphrase, unlocks the master key and sub key in parallel and returns an
+     * unlocked equivalent of {@code this}. The sub key is unlocked on {@code executor} while the
+     * master key is unlocked on the calling thread.
+     * <p/>
+     * If the master key and sub key were encrypted with the same S2K parameters, the passphrase is
+     * only derived once, and the two keys are decrypted with the shared result.
+     *
+     * @param passphrase the key set's passphrase
+     * @param executor   an executor on which to unlock the sub key
+     * @return a unlocked equivalent of {@code this}
+     * @throws CryptographicException if {@code passphrase} is incorrect
+     */
+    public UnlockedKeySet unlock(char[] passphrase, Executor executor) throws CryptographicException {
+        final PBESecretKeyDecryptor decryptor = getDecryptor(passphrase);
+        final FutureTask<UnlockedSubKey> unlockedSubKey =
+                new FutureTask<>(new Callable<UnlockedSubKey>() {
+                    @Override
+                    public UnlockedSubKey call() throws Exception {
+                        return subKey.unlock(decryptor);
+                    }
+                });
+        executor.execute(unlockedSubKey);
+
+        final UnlockedMasterKey unlockedMasterKey = masterKey.unlock(decryptor);
+        try {
+            return new UnlockedKeySet(unlockedMasterKey, unlockedSubKey.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CryptographicException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CryptographicException) {
+                throw (CryptographicException) e.getCause();
+            }
+            throw new CryptographicException(e.getCause());
+        }
+    }
+
+    private PBESecretKeyDecryptor getDecryptor(char[] passphrase) throws CryptographicException {
+        try {
+            return new SharedSecretKeyDecryptor(passphrase);
+        } catch (PGPException e) {
+            throw new CryptographicException(e);
+        }
+    }
 }
@@ -12,7 +12,6 @@ import org.bouncycastle.openpgp.operator.PGPDigestCalculator;
 import org.bouncycastle.openpgp.operator.bc.BcPGPKeyPair;
 import org.bouncycastle.openpgp.operator.jcajce.JcaPGPContentSignerBuilder;
 import org.bouncycastle.openpgp.operator.jcajce.JcaPGPDigestCalculatorProviderBuilder;
-import org.bouncycastle.openpgp.operator.jcajce.JcePBESecretKeyEncryptorBuilder;
 
 import java.security.SecureRandom;
 import java.util.Date;
@@ -30,6 +29,7 @@ public class KeySetGenerator {
     private final MasterKeyGenerator masterKeyGenerator;
     private final SubKeyGenerator subKeyGenerator;
     private final SymmetricAlgorithm keyEncryptionAlgorithm;
+    private final long s2kIterationCount;
 
     /**
      * Creates a new {@link KeySetGenerator}.
@@ -56,11 +56,39 @@ public class KeySetGenerator {
                            MasterKeyGenerator masterKeyGenerator,
                            SubKeyGenerator subKeyGenerator,
                            SymmetricAlgorithm keyEncryptionAlgorithm) {
+        this(random, executor, masterKeyGenerator, subKeyGenerator, keyEncryptionAlgorithm,
+             S2KIterations.DEFAULT);
+    }
+
+    /**
+     * Creates a new {@link KeySetGenerator}.
+     * <p/>
+     * The S2K iteration count determines how long it takes to unlock the generated key sets, and
+     * how long it takes to brute-force their passphrases. Use
+     * {@link S2KIterations#calibrate(long, java.util.concurrent.TimeUnit)} to pick a count which
+     * suits the host.
+     *
+     * @param random                 a secure random number generator
+     * @param executor               a set of worker threads
+     * @param masterKeyGenerator     the generator to use for master keys
+     * @param subKeyGenerator        the generator to use for sub keys
+     * @param keyEncryptionAlgorithm the symmetric algorithm to use to encrypt the private keys
+     * @param s2kIterationCount      the number of bytes to hash when deriving the key which
+     *                               encrypts the private keys, rounded up to the nearest count
+     *                               which can be encoded
+     */
+    public KeySetGenerator(SecureRandom random,
+                           ExecutorService executor,
+                           MasterKeyGenerator masterKeyGenerator,
+                           SubKeyGenerator subKeyGenerator,
+                           SymmetricAlgorithm keyEncryptionAlgorithm,
+                           long s2kIterationCount) {
         this.random = random;
         this.executor = executor;
         this.masterKeyGenerator = masterKeyGenerator;
         this.subKeyGenerator = subKeyGenerator;
         this.keyEncryptionAlgorithm = keyEncryptionAlgorithm;
+        this.s2kIterationCount = s2kIterationCount;
     }
 
     /**
@@ -102,9 +130,10 @@ public class KeySetGenerator {
                             .setSecureRandom(random);
 
             final PBESecretKeyEncryptor encryptor =
-                    new JcePBESecretKeyEncryptorBuilder(keyEncryptionAlgorithm.value())
-                            .setSecureRandom(random)
-                            .build(passphrase);
+                    SharedSecretKeyEncryptor.build(keyEncryptionAlgorithm,
+                                                   S2KIterations.encode(s2kIterationCount),
+                                                   random,
+                                                   passphrase);
 
             final PGPKeyRingGenerator generator =
                     new PGPKeyRingGenerator(SignatureType.POSITIVE_CERTIFICATION.value(),
@@ -17,8 +17,14 @@ public class MasterKey extends AbstractKey implements Locked<UnlockedMasterKey>
     @Override
     public UnlockedMasterKey unlock(char[] passphrase) throws CryptographicException {
         try {
-            final PBESecretKeyDecryptor decryptor =
-                    new JcePBESecretKeyDecryptorBuilder().build(passphrase);
+            return unlock(new JcePBESecretKeyDecryptorBuilder().build(passphrase));
+        } catch (PGPException e) {
+            throw new CryptographicException("Incorrect passphrase", e);
+        }
+    }
+
+    UnlockedMasterKey unlock(PBESecretKeyDecryptor decryptor) throws CryptographicException {
+        try {
             final PGPPrivateKey privateKey = secretKey.extractPrivateKey(decryptor);
             return new UnlockedMasterKey(secretKey, privateKey);
         } catch (PGPException e) {
@@ -0,0 +1,46 @@
+package com.codahale.gpgj;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.operator.PGPDataDecryptor;
+import org.bouncycastle.openpgp.operator.PublicKeyDataDecryptorFactory;
+
+import java.math.BigInteger;
+
+/**
+ * A {@link PublicKeyDataDecryptorFactory} which recovers the session key only once.
+ * <p/>
+ * Recovering the session key is a private-key operation, and BouncyCastle performs it both when
+ * checking the message's symmetric algorithm and again when opening the data stream. Wrapping the
+ * decryptor factory for a single message in this class ensures the session key is only decrypted
+ * once.
+ */
+class MemoizingDecryptorFactory implements PublicKeyDataDecryptorFactory {
+    private final PublicKeyDataDecryptorFactory factory;
+    private byte[] sessionData;
+
+    MemoizingDecryptorFactory(PublicKeyDataDecryptorFactory factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public byte[] recoverSessionData(int keyAlgorithm, BigInteger[] secKeyData) throws PGPException {
+        if (sessionData == null) {
+            this.sessionData = factory.recoverSessionData(keyAlgorithm, secKeyData);
+        }
+        return sessionData;
+    }
+
+    /**
+     * Returns a copy of the recovered session data, or {@code null} if it hasn't been recovered.
+     */
+    byte[] getSessionData() {
+        return sessionData == null ? null : sessionData.clone();
+    }
+
+    @Override
+    public PGPDataDecryptor createDataDecryptor(boolean withIntegrityPacket,
+                                                int encAlgorithm,
+                                                byte[] key) throws PGPException {
+        return factory.createDataDecryptor(withIntegrityPacket, encAlgorithm, key);
+    }
+}
@@ -0,0 +1,80 @@
+package com.codahale.gpgj;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * The decrypted body of a message, returned by {@link MessageReader#read(InputStream, long)} once
+ * the message's signature and integrity packet have been verified.
+ * <p/>
+ * Bodies no larger than the reader's memory limit are held in memory. Larger bodies are held in a
+ * temporary file, encrypted with a random key which is only held in memory, and are decrypted
+ * again as they're read.
+ * <p/>
+ * <b>N.B.:</b> Bodies should be closed once they're no longer needed, which deletes the temporary
+ * file and forgets its key.
+ */
+public final class MessageBody implements Closeable {
+    private final byte[] bytes;
+    private final EncryptedTempFile file;
+    private boolean closed;
+
+    MessageBody(byte[] bytes) {
+        this.bytes = bytes;
+        this.file = null;
+    }
+
+    MessageBody(EncryptedTempFile file) {
+        this.bytes = null;
+        this.file = file;
+    }
+
+    /**
+     * Returns the size of the body, in bytes.
+     */
+    public long size() {
+        return (file == null) ? bytes.length : file.size();
+    }
+
+    /**
+     * Returns {@code true} if the body is held in memory, or {@code false} if it was spilled to a
+     * temporary file.
+     */
+    public boolean isInMemory() {
+        return file == null;
+    }
+
+    /**
+     * Returns an input stream of the body. This may be called more than once, and each stream reads
+     * the body from its start.
+     *
+     * @throws IOException           if the temporary file cannot be read
+     * @throws IllegalStateException if the body has been closed
+     */
+    public InputStream openStream() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Message body has been closed");
+        }
+        return (file == null) ? new ByteArrayInputStream(bytes) : file.openInputStream();
+    }
+
+    /**
+     * Discards the body, deleting its temporary file if it has one.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        if (file == null) {
+            Arrays.fill(bytes, (byte) 0);
+        } else {
+            file.close();
+        }
+    }
+}
@@ -1,15 +1,25 @@
 package com.codahale.gpgj;
 
+import org.bouncycastle.bcpg.PacketTags;
 import org.bouncycastle.openpgp.*;
+import org.bouncycastle.openpgp.operator.PublicKeyDataDecryptorFactory;
 import org.bouncycastle.openpgp.operator.bc.BcPGPContentVerifierBuilderProvider;
 import org.bouncycastle.openpgp.operator.bc.BcPublicKeyDataDecryptorFactory;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.security.GeneralSecurityException;
 import java.security.NoSuchProviderException;
+import java.security.SecureRandom;
+import java.security.SignatureException;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
 
 /**
  * A reader class capable of decrypting OpenPGP messages created by {@link MessageWriter}.
@@ -35,8 +45,25 @@ import java.security.NoSuchProviderException;
  */
 public class MessageReader {
     private static final int BUFFER_SIZE = 1024 * 16; // 16KB
+    private static final int PIPELINE_THRESHOLD = 1 << 20;
+    /*
+     * The one-pass signature packets and the literal data packet's header are read from within
+     * this many bytes of the start of the decompressed data.
+     */
+    private static final int MAX_HEADERS_SIZE = 1024;
+    /*
+     * The literal data packet's length is read before the message has been verified, so it's only
+     * trusted so far: bodies of up to this length are read into an array of exactly their size,
+     * and longer ones into chunks which only grow as data is actually read.
+     */
+    private static final int MAX_PRESIZED_LENGTH = 1 << 20; // 1MB
+    private static final int MAX_CHUNK_SIZE = 1 << 24; // 16MB
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
     private final KeySet signer;
     private final UnlockedKeySet recipient;
+    private final SessionKeyCache sessionKeyCache;
+    private final Executor executor;
+    private final BufferPool pool;
 
     /**
      * Creates a new reader for a encrypted+signed message.
@@ -47,8 +74,69 @@ public class MessageReader {
      *                  key the message is encrypted with
      */
     public MessageReader(KeySet signer, UnlockedKeySet recipient) {
+        this(signer, recipient, null);
+    }
+
+    /**
+     * Creates a new reader for a encrypted+signed message which caches the session keys it
+     * recovers, so that reading the same message again skips the private-key operation.
+     *
+     * @param signer          the {@link KeySet} belonging to the user who signed the
+     *                        message
+     * @param recipient       the {@link UnlockedKeySet} belonging to the user whose public
+     *                        key the message is encrypted with
+     * @param sessionKeyCache the cache of recovered session keys, or {@code null} to recover
+     *                        session keys for every message
+     */
+    public MessageReader(KeySet signer, UnlockedKeySet recipient, SessionKeyCache sessionKeyCache) {
+        this(signer, recipient, sessionKeyCache, null);
+    }
+
+    /**
+     * Creates a new reader for a encrypted+signed message which processes large messages, and
+     * those read as streams, in a pipeline: the message is decrypted, decompressed, and hashed for
+     * the signature on separate threads, so that reading a large message isn't limited to the
+     * speed of a single core. If the executor has no threads to spare, the calling thread does the
+     * work instead. The signature and integrity packet are still only reported as valid once every
+     * stage has finished.
+     *
+     * @param signer          the {@link KeySet} belonging to the user who signed the
+     *                        message
+     * @param recipient       the {@link UnlockedKeySet} belonging to the user whose public
+     *                        key the message is encrypted with
+     * @param sessionKeyCache the cache of recovered session keys, or {@code null} to recover
+     *                        session keys for every message
+     * @param executor        an executor on which to process messages, or {@code null} to process
+     *                        them on the calling thread
+     */
+    public MessageReader(KeySet signer,
+                         UnlockedKeySet recipient,
+                         SessionKeyCache sessionKeyCache,
+                         Executor executor) {
+        this(signer, recipient, sessionKeyCache, executor, BufferPool.SHARED);
+    }
+
+    MessageReader(KeySet signer,
+                  UnlockedKeySet recipient,
+                  SessionKeyCache sessionKeyCache,
+                  Executor executor,
+                  BufferPool pool) {
         this.signer = signer;
         this.recipient = recipient;
+        this.sessionKeyCache = sessionKeyCache;
+        this.executor = executor;
+        this.pool = pool;
+    }
+
+    /**
+     * Creates a new reader for encrypted+signed messages which can only decrypt messages with
+     * their {@link SessionKey}s, and has no private key of its own.
+     *
+     * @param signer the {@link KeySet} belonging to the user who signed the message
+     * @see #read(byte[], SessionKey)
+     */
+    public MessageReader(KeySet signer) {
+        this(signer, null, null, null);
     }
 
     /**
@@ -62,7 +150,10 @@ public class MessageReader {
      *                                pointless.
      */
     public byte[] read(byte[] encrypted) throws CryptographicException {
-        return read(new ByteArrayInputStream(encrypted));
+        return readFully(open(new ByteArrayInputStream(encrypted),
+                              getDecryptorFactory(),
+                              recipient,
+                              isPipelined(encrypted.length)));
     }
 
     /**
@@ -76,43 +167,339 @@ public class MessageReader {
      *                                pointless.
      */
     public byte[] read(InputStream encrypted) throws CryptographicException {
-        try {
-            final PGPPublicKeyEncryptedData encryptedData = getEncryptedData(encrypted);
-            final InputStream decryptedData = encryptedData.getDataStream(new BcPublicKeyDataDecryptorFactory(recipient.getUnlockedSubKey().getPrivateKey()));
-            final InputStream decompressedData = getCompressedData(decryptedData);
+        return readFully(open(encrypted, getDecryptorFactory(), recipient, executor != null));
+    }
 
-            final PGPObjectFactory factory = getFactory(decompressedData);
+    /*
+     * If the literal data packet has a definite length, the body is read directly into an array of
+     * exactly its size, or into chunks if the length is too large to trust. Otherwise it's read
+     * into a list of chunks, which are copied into a single array once the end of the body is
+     * reached.
+     */
+    private byte[] readFully(VerifyingInputStream decrypted) throws CryptographicException {
+        try (VerifyingInputStream body = decrypted) {
+            final long length = body.getLength();
+            if (length != PacketHeader.UNKNOWN_LENGTH && length <= MAX_ARRAY_SIZE) {
+                return readExactly(body, length);
+            }
+            return readChunks(body);
+        } catch (CryptographicIOException e) {
+            throw e.getCause();
+        } catch (IOException e) {
+            throw new CryptographicException(e);
+        }
+    }
 
-            final PGPOnePassSignature signature = getOnePassSignature(signer, factory);
-            signature.init(new BcPGPContentVerifierBuilderProvider(), signer.getMasterKey().getPublicKey());
+    private static byte[] readExactly(InputStream body, long length) throws IOException {
+        final byte[] b;
+        if (length <= MAX_PRESIZED_LENGTH) {
+            b = new byte[(int) length];
+            int n = 0;
+            while (n < length) {
+                final int r = body.read(b, n, b.length - n);
+                if (r < 0) {
+                    throw new EOFException("Truncated literal data");
+                }
+                n += r;
+            }
+        } else {
+            final ChunkedBuffer buffer = new ChunkedBuffer(MAX_PRESIZED_LENGTH, MAX_CHUNK_SIZE, length);
+            while (!buffer.isFull()) {
+                if (buffer.readFrom(body) < 0) {
+                    throw new EOFException("Truncated literal data");
+                }
+            }
+            b = buffer.toByteArray();
+        }
 
-            final InputStream body = getLiteralData(factory);
-            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        // reading the end of the body verifies the message
+        if (body.read() >= 0) {
+            throw new IOException("Literal data is longer than its length");
+        }
+        return b;
+    }
 
-            byte[] b = new byte[BUFFER_SIZE];
-            int r;
-            while ((r = body.read(b)) >= 0) {
-                output.write(b, 0, r);
-                signature.update(b, 0, r);
+    private static byte[] readChunks(InputStream body) throws IOException {
+        final ChunkedBuffer buffer = new ChunkedBuffer(BUFFER_SIZE, MAX_CHUNK_SIZE, MAX_ARRAY_SIZE);
+        while (!buffer.isFull()) {
+            if (buffer.readFrom(body) < 0) {
+                return buffer.toByteArray();
             }
+        }
+
+        if (body.read() >= 0) {
+            throw new IOException("Message body is too large to read into an array");
+        }
+        return buffer.toByteArray();
+    }
 
-            if (!signature.verify(getSignature(signer, factory))) {
-                throw new CryptographicException("Invalid signature");
+    /**
+     * Decrypts the message and verifies its signature and integrity packet, holding the decrypted
+     * body in memory if it is no larger than {@code memoryLimit} and spilling it to an encrypted
+     * temporary file in the default temporary directory otherwise.
+     *
+     * @param encrypted   the encrypted message body
+     * @param memoryLimit the largest body, in bytes, which will be held in memory
+     * @return the decrypted message body, which must be closed once it is no longer needed
+     * @throws CryptographicException if any error occurs while processing the message. This should
+     *                                be taken as an indicator that the message has been tampered
+     *                                with or is invalid, and that retrying the operation would be
+     *                                pointless.
+     * @throws IOException            if the temporary file cannot be written
+     * @see #read(InputStream, long, File)
+     */
+    public MessageBody read(InputStream encrypted, long memoryLimit) throws CryptographicException, IOException {
+        return read(encrypted, memoryLimit, null);
+    }
+
+    /**
+     * Decrypts the message and verifies its signature and integrity packet, holding the decrypted
+     * body in memory if it is no larger than {@code memoryLimit} and spilling it to an encrypted
+     * temporary file in {@code directory} otherwise.
+     * <p/>
+     * The body is only returned once the message has been verified; if it cannot be, the temporary
+     * file is deleted before the exception is thrown.
+     *
+     * @param encrypted   the encrypted message body
+     * @param memoryLimit the largest body, in bytes, which will be held in memory
+     * @param directory   the directory in which to create the temporary file, or {@code null} for
+     *                    the default temporary directory
+     * @return the decrypted message body, which must be closed once it is no longer needed
+     * @throws CryptographicException if any error occurs while processing the message
+     * @throws IOException            if the temporary file cannot be written
+     */
+    public MessageBody read(InputStream encrypted, long memoryLimit, File directory)
+            throws CryptographicException, IOException {
+        if (memoryLimit < 0) {
+            throw new IllegalArgumentException("Memory limit must be non-negative");
+        }
+
+        try (VerifyingInputStream body = open(encrypted, getDecryptorFactory(), recipient, executor != null)) {
+            final long limit = Math.min(memoryLimit, MAX_ARRAY_SIZE);
+            final ChunkedBuffer buffer;
+            final int next;
+            try {
+                final long length = body.getLength();
+                if (length != PacketHeader.UNKNOWN_LENGTH && length <= limit) {
+                    return new MessageBody(readExactly(body, length));
+                }
+
+                buffer = new ChunkedBuffer(BUFFER_SIZE, MAX_CHUNK_SIZE, limit);
+                while (!buffer.isFull()) {
+                    if (buffer.readFrom(body) < 0) {
+                        return new MessageBody(buffer.toByteArray());
+                    }
+                }
+
+                next = body.read();
+                if (next < 0) {
+                    return new MessageBody(buffer.toByteArray());
+                }
+            } catch (CryptographicIOException e) {
+                throw e.getCause();
+            } catch (IOException e) {
+                throw new CryptographicException(e);
+            }
+            return new MessageBody(spill(buffer, next, body, directory));
+        }
+    }
+
+    /*
+     * Writes the buffer and the rest of the body to an encrypted temporary file, which is deleted if
+     * the body can't be read to its end and verified. Errors reading the body are cryptographic;
+     * errors writing the file are not.
+     */
+    private static EncryptedTempFile spill(ChunkedBuffer buffer, int next, InputStream body, File directory)
+            throws CryptographicException, IOException {
+        final EncryptedTempFile file = new EncryptedTempFile(directory, new SecureRandom());
+        boolean verified = false;
+        try {
+            try (OutputStream output = file.openOutputStream()) {
+                buffer.writeTo(output);
+                output.write(next);
+
+                final byte[] b = new byte[BUFFER_SIZE];
+                int r;
+                while ((r = readSome(body, b)) >= 0) {
+                    output.write(b, 0, r);
+                }
+            }
+            verified = true;
+            return file;
+        } finally {
+            if (!verified) {
+                file.close();
             }
+        }
+    }
+
+    private static int readSome(InputStream body, byte[] b) throws CryptographicException {
+        try {
+            return body.read(b);
+        } catch (CryptographicIOException e) {
+            throw e.getCause();
+        } catch (IOException e) {
+            throw new CryptographicException(e);
+        }
+    }
+
+    /**
+     * Decrypts the message with the given session key and verifies its signature and integrity
+     * packet. The recipient's private key is not used.
+     *
+     * @param encrypted  the encrypted message body
+     * @param sessionKey the message's session key
+     * @return the decrypted message body
+     * @throws CryptographicException if any error occurs while processing the message, including
+     *                                if {@code sessionKey} is not the message's session key
+     * @see #recoverSessionKey(byte[])
+     */
+    public byte[] read(byte[] encrypted, SessionKey sessionKey) throws CryptographicException {
+        return readFully(open(new ByteArrayInputStream(encrypted),
+                              new SessionKeyDecryptorFactory(sessionKey),
+                              null,
+                              isPipelined(encrypted.length)));
+    }
+
+    /**
+     * Recovers the message's session key with the recipient's private key, without decrypting
+     * the message body.
+     *
+     * @param encrypted the encrypted message
+     * @return the message's session key
+     * @throws CryptographicException if any error occurs while processing the message
+     * @see #read(byte[], SessionKey)
+     */
+    public SessionKey recoverSessionKey(byte[] encrypted) throws CryptographicException {
+        return recoverSessionKey(new ByteArrayInputStream(encrypted));
+    }
+
+    /**
+     * Recovers the message's session key with the recipient's private key, without decrypting
+     * the message body. Only the message's session key packets are read from {@code encrypted}.
+     *
+     * @param encrypted an input stream of the encrypted message
+     * @return the message's session key
+     * @throws CryptographicException if any error occurs while processing the message
+     * @see #open(InputStream, SessionKey)
+     */
+    public SessionKey recoverSessionKey(InputStream encrypted) throws CryptographicException {
+        try {
+            final MemoizingDecryptorFactory decryptorFactory = getDecryptorFactory();
+            getEncryptedData(encrypted, decryptorFactory, recipient);
+            final byte[] sessionData = decryptorFactory.getSessionData();
+            try {
+                return SessionKey.fromSessionData(sessionData);
+            } finally {
+                Arrays.fill(sessionData, (byte) 0);
+            }
+        } catch (IOException | ClassCastException | GeneralSecurityException | PGPException e) {
+            throw new CryptographicException(e);
+        }
+    }
+
+    /**
+     * Decrypts the message as it is read, returning an input stream of the message body. The
+     * message's signature and integrity packet are verified once the end of the body has been
+     * reached; if either is invalid, the final read throws an {@link IOException} whose cause is a
+     * {@link CryptographicException}.
+     * <p/>
+     * <b>N.B.:</b> Data read from the returned stream is unauthenticated until the stream has
+     * signalled the end of the body. Callers should not act upon it until then.
+     *
+     * @param encrypted the encrypted message body
+     * @return an input stream of the decrypted message body
+     * @throws CryptographicException if any error occurs while processing the message headers
+     */
+    public InputStream open(InputStream encrypted) throws CryptographicException {
+        return open(encrypted, getDecryptorFactory(), recipient, executor != null);
+    }
 
-            if (!encryptedData.verify()) {
-                throw new CryptographicException("Integrity check failed");
+    /**
+     * Decrypts the message with the given session key as it is read, returning an input stream of
+     * the message body. The recipient's private key is not used.
+     *
+     * @param encrypted  the encrypted message body
+     * @param sessionKey the message's session key
+     * @return an input stream of the decrypted message body
+     * @throws CryptographicException if any error occurs while processing the message headers
+     * @see #open(InputStream)
+     */
+    public InputStream open(InputStream encrypted, SessionKey sessionKey) throws CryptographicException {
+        return open(encrypted, new SessionKeyDecryptorFactory(sessionKey), null, executor != null);
+    }
+
+    private MemoizingDecryptorFactory getDecryptorFactory() throws CryptographicException {
+        if (recipient == null) {
+            throw new CryptographicException("No recipient key, so messages can only be read with session keys");
+        }
+        PublicKeyDataDecryptorFactory factory =
+                new BcPublicKeyDataDecryptorFactory(recipient.getUnlockedSubKey().getPrivateKey());
+        if (sessionKeyCache != null) {
+            factory = sessionKeyCache.wrap(factory, recipient.getSubKey().getKeyID());
+        }
+        return new MemoizingDecryptorFactory(factory);
+    }
+
+    /*
+     * Pipelining costs a few context switches per block, which is only worth it for messages much
+     * larger than a block.
+     */
+    private boolean isPipelined(int encryptedSize) {
+        return executor != null && encryptedSize >= PIPELINE_THRESHOLD;
+    }
+
+    /*
+     * If pipelined, decryption, decompression, and hashing each happen on a separate stage.
+     */
+    private VerifyingInputStream open(InputStream encrypted,
+                                      PublicKeyDataDecryptorFactory decryptorFactory,
+                                      KeySet recipient,
+                                      boolean pipelined) throws CryptographicException {
+        try {
+            final Pipeline pipeline = pipelined ? new Pipeline(executor, pool) : null;
+            final PGPPublicKeyEncryptedData encryptedData = getEncryptedData(encrypted, decryptorFactory, recipient);
+            InputStream decryptedData = encryptedData.getDataStream(decryptorFactory);
+            if (pipelined) {
+                decryptedData = pipeline.new StageInputStream(decryptedData);
             }
+            final RecordingInputStream decompressedData =
+                    new RecordingInputStream(getCompressedData(decryptedData), MAX_HEADERS_SIZE);
+
+            final PGPObjectFactory factory = getFactory(decompressedData);
 
-            return output.toByteArray();
+            final PGPOnePassSignature signature = getOnePassSignature(signer, factory);
+            signature.init(new BcPGPContentVerifierBuilderProvider(), signer.getMasterKey().getPublicKey());
+
+            final InputStream literalData = getLiteralData(factory);
+            final long length = getLiteralDataLength(decompressedData.getRecorded());
+            if (pipelined) {
+                final Pipeline.Stage hashing = getHashingStage(pipeline, signature);
+                return new VerifyingInputStream(pipeline.new StageInputStream(literalData, hashing),
+                                                length, factory, signature, encryptedData, hashing, decryptedData);
+            }
+            return new VerifyingInputStream(literalData, length, factory, signature, encryptedData, null, null);
         } catch (IOException | ClassCastException | GeneralSecurityException | PGPException e) {
             throw new CryptographicException(e);
         }
     }
 
+    private Pipeline.Stage getHashingStage(Pipeline pipeline, final PGPOnePassSignature signature) {
+        return pipeline.new Stage() {
+            @Override
+            protected void process(Pipeline.Block block) throws IOException {
+                try {
+                    signature.update(block.getData(), 0, block.getLength());
+                } catch (SignatureException e) {
+                    throw new CryptographicIOException(new CryptographicException(e));
+                }
+            }
+        };
+    }
+
     private PGPSignature getSignature(KeySet owner, PGPObjectFactory factory) throws CryptographicException, IOException {
         final PGPSignatureList signatures = (PGPSignatureList) factory.nextObject();
-        for (int i = 0, size = signatures.size(); i < size; i++) {
+        for (int i = 0, size = (signatures == null) ? 0 : signatures.size(); i < size; i++) {
             final PGPSignature signature = signatures.get(i);
             if (signature.getKeyID() == owner.getMasterKey().getKeyID()) {
                 final HashAlgorithm hashAlgorithm = Flags.fromInt(
@@ -132,12 +519,53 @@ public class MessageReader {
     }
 
     private InputStream getLiteralData(PGPObjectFactory factory) throws IOException {
-        return ((PGPLiteralData) factory.nextObject()).getDataStream();
+        final PGPLiteralData literalData = (PGPLiteralData) factory.nextObject();
+        if (literalData == null) {
+            throw new IOException("Missing literal data");
+        }
+        return literalData.getDataStream();
+    }
+
+    /*
+     * Bouncy Castle doesn't expose the length of a literal data packet, so it's parsed from the
+     * start of the decompressed data: the one-pass signature packets, followed by the literal data
+     * packet's header, format, file name, and modification date. If the packet has partial body
+     * lengths, or the headers couldn't be parsed or are inconsistent, the length is unknown.
+     */
+    private static long getLiteralDataLength(byte[] decompressed) throws IOException {
+        final ByteArrayInputStream input = new ByteArrayInputStream(decompressed);
+        PacketHeader header;
+        while ((header = PacketHeader.read(input)) != null) {
+            final long bodyLength = header.getBodyLength();
+            if (bodyLength == PacketHeader.UNKNOWN_LENGTH) {
+                break;
+            }
+
+            if (header.getTag() == PacketTags.ONE_PASS_SIGNATURE) {
+                if (input.skip(bodyLength) < bodyLength) {
+                    break;
+                }
+            } else if (header.getTag() == PacketTags.LITERAL_DATA) {
+                final int format = input.read();
+                final int fileNameLength = input.read();
+                if (format < 0 || fileNameLength < 0) {
+                    break;
+                }
+                final long length = bodyLength - (1 + 1 + fileNameLength + 4);
+                if (length < 0 || length > bodyLength) {
+                    break;
+                }
+                return length;
+            } else {
+                break;
+            }
+        }
+        return PacketHeader.UNKNOWN_LENGTH;
     }
 
     private PGPOnePassSignature getOnePassSignature(KeySet owner, PGPObjectFactory factory) throws CryptographicException, IOException {
         final PGPOnePassSignatureList signatures = (PGPOnePassSignatureList) factory.nextObject();
-        for (int i = 0, size = signatures.size(); i < size; i++) {
+        for (int i = 0, size = (signatures == null) ? 0 : signatures.size(); i < size; i++) {
             final PGPOnePassSignature signature = signatures.get(i);
             if (signature.getKeyID() == owner.getMasterKey().getKeyID()) {
                 return signature;
@@ -154,10 +582,21 @@ public class MessageReader {
         if (compressedData.getAlgorithm() == CompressionAlgorithm.NONE.value()) {
             throw new CryptographicException("Encrypted data is uncompressed");
         }
+
+        if (compressedData.getAlgorithm() == CompressionAlgorithm.ZIP.value()) {
+            return new PooledInflaterInputStream(compressedData.getInputStream(), CompressionAlgorithm.ZIP, pool);
+        } else if (compressedData.getAlgorithm() == CompressionAlgorithm.ZLIB.value()) {
+            return new PooledInflaterInputStream(compressedData.getInputStream(), CompressionAlgorithm.ZLIB, pool);
+        }
         return compressedData.getDataStream();
     }
 
-    private PGPPublicKeyEncryptedData getEncryptedData(InputStream input) throws IOException,
+    /*
+     * Returns the encrypted data for the given recipient, or for any recipient if it is null.
+     */
+    private PGPPublicKeyEncryptedData getEncryptedData(InputStream input,
+                                                       PublicKeyDataDecryptorFactory decryptorFactory,
+                                                       KeySet recipient) throws IOException,
             CryptographicException, IllegalArgumentException, NoSuchProviderException, PGPException {
 
         final PGPObjectFactory factory = getFactory(input);
@@ -167,10 +606,10 @@ public class MessageReader {
             final PGPEncryptedData encryptedData = (PGPEncryptedData) encryptedDataList.get(i);
             if (encryptedData instanceof PGPPublicKeyEncryptedData) {
                 final PGPPublicKeyEncryptedData pkEncryptedData = (PGPPublicKeyEncryptedData) encryptedData;
-                if (pkEncryptedData.getKeyID() == recipient.getSubKey().getKeyID()) {
+                if (recipient == null || pkEncryptedData.getKeyID() == recipient.getSubKey().getKeyID()) {
                     final SymmetricAlgorithm symmetricAlgorithm = Flags.fromInt(
                             SymmetricAlgorithm.class,
-                            pkEncryptedData.getSymmetricAlgorithm(new BcPublicKeyDataDecryptorFactory(recipient.getUnlockedSubKey().getPrivateKey()))
+                            pkEncryptedData.getSymmetricAlgorithm(decryptorFactory)
                     );
 
                     if (!SymmetricAlgorithm.ACCEPTABLE_ALGORITHMS.contains(symmetricAlgorithm)) {
@@ -185,10 +624,215 @@ public class MessageReader {
             }
         }
 
+        if (recipient == null) {
+            throw new CryptographicException("No encrypted data found");
+        }
         throw new CryptographicException("No encrypted data for " + recipient + " found");
     }
 
     private PGPObjectFactory getFactory(InputStream input) throws IOException {
         return new PGPObjectFactory(PGPUtil.getDecoderStream(input));
     }
+
+    /**
+     * Updates the one-pass signature with the message body as it is read, and verifies the
+     * signature and integrity packet once the end of the body is reached. If pipelined, the
+     * signature is updated by the hashing stage instead, and verification waits for the hashing
+     * and decryption stages to finish.
+     */
+    private class VerifyingInputStream extends FilterInputStream {
+        private final long length;
+        private final PGPObjectFactory factory;
+        private final PGPOnePassSignature signature;
+        private final PGPPublicKeyEncryptedData encryptedData;
+        private final Pipeline.Stage hashing;
+        private final InputStream decryptedData;
+        private boolean verified;
+
+        private VerifyingInputStream(InputStream body,
+                                     long length,
+                                     PGPObjectFactory factory,
+                                     PGPOnePassSignature signature,
+                                     PGPPublicKeyEncryptedData encryptedData,
+                                     Pipeline.Stage hashing,
+                                     InputStream decryptedData) {
+            super(body);
+            this.length = length;
+            this.factory = factory;
+            this.signature = signature;
+            this.encryptedData = encryptedData;
+            this.hashing = hashing;
+            this.decryptedData = decryptedData;
+        }
+
+        /**
+         * Returns the length of the message body, or {@link PacketHeader#UNKNOWN_LENGTH}.
+         */
+        private long getLength() {
+            return length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = in.read();
+            try {
+                if (b < 0) {
+                    verify();
+                } else if (hashing == null) {
+                    signature.update((byte) b);
+                }
+            } catch (SignatureException e) {
+                throw new CryptographicIOException(new CryptographicException(e));
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int r = in.read(b, off, len);
+            try {
+                if (r < 0) {
+                    verify();
+                } else if (hashing == null) {
+                    signature.update(b, off, r);
+                }
+            } catch (SignatureException e) {
+                throw new CryptographicIOException(new CryptographicException(e));
+            }
+            return r;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (n <= 0) {
+                return 0;
+            }
+
+            // skipped bytes must still be fed to the signature
+            final byte[] b = new byte[(int) Math.min(n, BUFFER_SIZE)];
+            long skipped = 0;
+            while (skipped < n) {
+                final int r = read(b, 0, (int) Math.min(n - skipped, b.length));
+                if (r < 0) {
+                    break;
+                }
+                skipped += r;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+            // marks are not supported
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            throw new IOException("mark/reset not supported");
+        }
+
+        private void verify() throws IOException {
+            if (verified) {
+                return;
+            }
+
+            if (hashing != null) {
+                hashing.finish();
+            }
+
+            try {
+                if (!signature.verify(getSignature(signer, factory))) {
+                    throw new CryptographicException("Invalid signature");
+                }
+
+                if (decryptedData != null) {
+                    // the decryption stage must have read the rest of the message before the
+                    // integrity packet can be checked
+                    final byte[] b = new byte[BUFFER_SIZE];
+                    while (decryptedData.read(b) >= 0) {
+                        // skip any trailing data
+                    }
+                }
+
+                if (!encryptedData.verify()) {
+                    throw new CryptographicException("Integrity check failed");
+                }
+            } catch (CryptographicException e) {
+                throw new CryptographicIOException(e);
+            } catch (ClassCastException | GeneralSecurityException | PGPException e) {
+                throw new CryptographicIOException(new CryptographicException(e));
+            }
+
+            this.verified = true;
+        }
+    }
+
+    /**
+     * Records the first bytes read through it, so that the headers of the packets they hold can be
+     * parsed once they've been read.
+     */
+    private static class RecordingInputStream extends FilterInputStream {
+        private final ByteArrayOutputStream recorded;
+        private final int limit;
+
+        private RecordingInputStream(InputStream in, int limit) {
+            super(in);
+            this.recorded = new ByteArrayOutputStream(limit);
+            this.limit = limit;
+        }
+
+        /**
+         * Returns the bytes recorded so far.
+         */
+        private byte[] getRecorded() {
+            return recorded.toByteArray();
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = in.read();
+            if (b >= 0 && recorded.size() < limit) {
+                recorded.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int r = in.read(b, off, len);
+            if (r > 0 && recorded.size() < limit) {
+                recorded.write(b, off, Math.min(r, limit - recorded.size()));
+            }
+            return r;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (n <= 0) {
+                return 0;
+            }
+
+            // skipped bytes must still be recorded
+            final byte[] b = new byte[(int) Math.min(n, BUFFER_SIZE)];
+            long skipped = 0;
+            while (skipped < n) {
+                final int r = read(b, 0, (int) Math.min(n - skipped, b.length));
+                if (r < 0) {
+                    break;
+                }
+                skipped += r;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
 }
@@ -0,0 +1,199 @@
+package com.codahale.gpgj;
+
+import org.bouncycastle.bcpg.BCPGInputStream;
+import org.bouncycastle.bcpg.PacketTags;
+import org.bouncycastle.bcpg.PublicKeyEncSessionPacket;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.operator.PGPKeyEncryptionMethodGenerator;
+import org.bouncycastle.openpgp.operator.bc.BcPublicKeyDataDecryptorFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Changes the recipients of messages written by {@link MessageWriter} without decrypting their
+ * bodies.
+ * <p/>
+ * The message's session key is recovered with the owner's sub key and encrypted for each of the
+ * new recipients and the owner. The encrypted body is copied byte-for-byte, so re-keying a message
+ * costs the same regardless of its size, and its signature and integrity packet are unchanged.
+ * <p/>
+ * <b>N.B.:</b> Recipients who have been removed from a message may still have its session key, and
+ * with it the means to decrypt the body. Re-keying only controls who can recover the session key
+ * from the message in the future.
+ */
+public class MessageRekeyer {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAX_SESSION_KEY_PACKET_SIZE = 1 << 16;
+    private final UnlockedKeySet owner;
+    private final RecipientSet recipients;
+    private final SecureRandom random;
+    private final Executor executor;
+
+    /**
+     * Creates a new re-keyer.
+     *
+     * @param owner      the {@link UnlockedKeySet} of a user for whom the messages are encrypted,
+     *                   who will remain a recipient
+     * @param recipients the new recipients of the messages
+     * @param random     a {@link SecureRandom} instance
+     */
+    public MessageRekeyer(UnlockedKeySet owner, RecipientSet recipients, SecureRandom random) {
+        this(owner, recipients, random, null);
+    }
+
+    /**
+     * Creates a new re-keyer which encrypts the session key for each recipient in parallel.
+     *
+     * @param owner      the {@link UnlockedKeySet} of a user for whom the messages are encrypted,
+     *                   who will remain a recipient
+     * @param recipients the new recipients of the messages
+     * @param random     a {@link SecureRandom} instance
+     * @param executor   an executor on which to encrypt the session key, or {@code null} to
+     *                   encrypt it on the calling thread
+     */
+    public MessageRekeyer(UnlockedKeySet owner,
+                          RecipientSet recipients,
+                          SecureRandom random,
+                          Executor executor) {
+        this.owner = owner;
+        this.recipients = recipients.withLast(owner);
+        this.random = random;
+        this.executor = executor;
+    }
+
+    /**
+     * Re-encrypts the message's session key for the new recipients.
+     *
+     * @param encrypted an encrypted message
+     * @return the message, encrypted for the new recipients
+     * @throws CryptographicException if any error occurs while processing the message
+     */
+    public byte[] rekey(byte[] encrypted) throws CryptographicException {
+        try {
+            final ByteArrayOutputStream output = new ByteArrayOutputStream(encrypted.length);
+            rekey(new ByteArrayInputStream(encrypted), output);
+            return output.toByteArray();
+        } catch (IOException e) {
+            throw new CryptographicException(e);
+        }
+    }
+
+    /**
+     * Re-encrypts the message's session key for the new recipients as it is read from the given
+     * input stream, writing the re-keyed message to the given output stream.
+     *
+     * @param encrypted an input stream of an encrypted message
+     * @param output    the output stream to which the re-keyed message will be written
+     * @throws CryptographicException if any error occurs while processing the message
+     * @throws IOException            if there is an error reading from {@code encrypted} or
+     *                                writing to {@code output}
+     */
+    public void rekey(InputStream encrypted, OutputStream output) throws CryptographicException, IOException {
+        SessionKey sessionKey = null;
+        try {
+            PacketHeader header;
+            while ((header = PacketHeader.read(encrypted)) != null) {
+                switch (header.getTag()) {
+                    case PacketTags.PUBLIC_KEY_ENC_SESSION:
+                        final PublicKeyEncSessionPacket packet = readSessionKeyPacket(header, encrypted);
+                        if (sessionKey == null && packet.getKeyID() == owner.getSubKey().getKeyID()) {
+                            sessionKey = recoverSessionKey(packet);
+                        }
+                        break;
+                    case PacketTags.SYM_ENC_INTEGRITY_PRO:
+                        if (sessionKey == null) {
+                            throw new CryptographicException("No encrypted data for " + owner + " found");
+                        }
+                        writeSessionKeyPackets(sessionKey, output);
+                        header.writeTo(output);
+                        copy(encrypted, output);
+                        return;
+                    case PacketTags.SYMMETRIC_KEY_ENC:
+                        throw new CryptographicException("Missing integrity packet");
+                    default:
+                        throw new CryptographicException("Unexpected packet: " + header.getTag());
+                }
+            }
+            throw new CryptographicException("No encrypted data found");
+        } finally {
+            if (sessionKey != null) {
+                sessionKey.destroy();
+            }
+        }
+    }
+
+    private PublicKeyEncSessionPacket readSessionKeyPacket(PacketHeader header,
+                                                           InputStream input) throws CryptographicException, IOException {
+        final long length = header.getBodyLength();
+        if (length == PacketHeader.UNKNOWN_LENGTH || length > MAX_SESSION_KEY_PACKET_SIZE) {
+            throw new CryptographicException("Invalid session key packet length: " + length);
+        }
+
+        final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        header.writeTo(encoded);
+        final byte[] body = new byte[(int) length];
+        new DataInputStream(input).readFully(body);
+        encoded.write(body);
+
+        final BCPGInputStream packets = new BCPGInputStream(new ByteArrayInputStream(encoded.toByteArray()));
+        return (PublicKeyEncSessionPacket) packets.readPacket();
+    }
+
+    private SessionKey recoverSessionKey(PublicKeyEncSessionPacket packet) throws CryptographicException {
+        final byte[] sessionData;
+        try {
+            sessionData = new BcPublicKeyDataDecryptorFactory(owner.getUnlockedSubKey().getPrivateKey())
+                    .recoverSessionData(packet.getAlgorithm(), packet.getEncSessionKey());
+        } catch (PGPException e) {
+            throw new CryptographicException(e);
+        }
+
+        final SessionKey sessionKey;
+        try {
+            sessionKey = SessionKey.fromSessionData(sessionData);
+        } finally {
+            Arrays.fill(sessionData, (byte) 0);
+        }
+
+        if (!SymmetricAlgorithm.ACCEPTABLE_ALGORITHMS.contains(sessionKey.getAlgorithm())) {
+            sessionKey.destroy();
+            throw new CryptographicException("Data is encrypted with " + sessionKey.getAlgorithm() + " which is unacceptable");
+        }
+        return sessionKey;
+    }
+
+    private void writeSessionKeyPackets(SessionKey sessionKey, OutputStream output) throws CryptographicException, IOException {
+        List<PGPKeyEncryptionMethodGenerator> methods = recipients.getMethods(random);
+        if (executor != null && methods.size() > 1) {
+            methods = ParallelKeyEncryptionMethodGenerator.wrap(methods, executor);
+        }
+
+        final byte[] sessionData = sessionKey.toSessionData();
+        try {
+            for (PGPKeyEncryptionMethodGenerator method : methods) {
+                output.write(method.generate(sessionData[0], sessionData).getEncoded());
+            }
+        } catch (PGPException e) {
+            throw new CryptographicException(e);
+        } finally {
+            Arrays.fill(sessionData, (byte) 0);
+        }
+    }
+
+    private void copy(InputStream input, OutputStream output) throws IOException {
+        final byte[] b = new byte[BUFFER_SIZE];
+        int r;
+        while ((r = input.read(b)) >= 0) {
+            output.write(b, 0, r);
+        }
+    }
+}
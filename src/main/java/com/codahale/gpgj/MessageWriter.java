@@ -1,17 +1,26 @@
 package com.codahale.gpgj;
 
+import org.bouncycastle.bcpg.PacketTags;
 import org.bouncycastle.openpgp.*;
+import org.bouncycastle.openpgp.operator.PGPDataEncryptor;
+import org.bouncycastle.openpgp.operator.PGPDataEncryptorBuilder;
+import org.bouncycastle.openpgp.operator.PGPKeyEncryptionMethodGenerator;
 import org.bouncycastle.openpgp.operator.bc.BcPGPContentSignerBuilder;
 import org.bouncycastle.openpgp.operator.bc.BcPGPDataEncryptorBuilder;
-import org.bouncycastle.openpgp.operator.bc.BcPublicKeyKeyEncryptionMethodGenerator;
 
 import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
 import java.security.SignatureException;
 import java.util.Collection;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.zip.Deflater;
 
 /**
  * A writer class capable of producing encrypted+signed OpenPGP messages.
@@ -74,15 +83,47 @@ import java.util.Date;
  * @see CompressionAlgorithm#DEFAULT
  */
 public class MessageWriter {
+    /**
+     * Compress message bodies at the compression algorithm's default level.
+     */
+    public static final int DEFAULT_COMPRESSION = Deflater.DEFAULT_COMPRESSION;
+
+    /**
+     * Compress message bodies at the compression algorithm's default level unless the start of the
+     * body looks incompressible, in which case it is stored in a ZIP or ZLIB compressed data packet
+     * without being compressed. For BZIP2, which can't store data uncompressed, ZIP is used for
+     * incompressible bodies.
+     */
+    public static final int ADAPTIVE_COMPRESSION = -2;
+
     private static final int BUFFER_SIZE = 1 << 16;
-    private static final double ENVELOPE_OVERHEAD = 1.2;
-    private static final double RECIPIENT_OVERHEAD = 300;
+    /*
+     * The one-pass signature packet, the literal data packet's header, and the signature packet
+     * add about this much to a body, as well as the signature itself and the owner's user ID.
+     */
+    private static final int SIGNATURE_PACKET_OVERHEAD = 80;
+    /*
+     * The largest DSA or ECDSA signature, two 66-byte MPIs.
+     */
+    private static final int MAX_DSA_SIGNATURE_SIZE = 2 * (2 + 66);
+    /*
+     * The encrypted data packet's header, version, and random prefix, and the modification
+     * detection code packet, for a cipher with a block size of up to 16 bytes.
+     */
+    private static final int ENCRYPTION_OVERHEAD = 6 + 1 + 16 + 2 + 22;
+    private static final int PIPELINE_THRESHOLD = 1 << 20;
+    private static final int SMALL_MESSAGE_THRESHOLD = BUFFER_SIZE;
     private final UnlockedKeySet owner;
-    private final Collection<KeySet> recipients;
+    private final RecipientSet recipients;
     private final SecureRandom random;
     private final SymmetricAlgorithm symmetricAlgorithm;
     private final HashAlgorithm hashAlgorithm;
     private final CompressionAlgorithm compressionAlgorithm;
+    private final Executor executor;
+    private final int compressionLevel;
+    private final BufferPool pool;
+    private final SizeEstimator estimator;
+    private final int signatureOverhead;
 
     /**
      * Creates a new writer for an encrypted+signed message.
@@ -90,6 +131,7 @@ public class MessageWriter {
      * @param owner      the {@link UnlockedKeySet} belonging to the message owner
      * @param recipients the {@link KeySet}s belonging to the recipients
      * @param random     a {@link SecureRandom} instance
+     * @throws IllegalArgumentException if any of the recipients' sub keys cannot encrypt data
      */
     public MessageWriter(UnlockedKeySet owner,
                          Collection<KeySet> recipients,
@@ -111,6 +153,7 @@ public class MessageWriter {
      * @param symmetricAlgorithm   the symmetric algorithm with which to encrypt the message body
      * @param hashAlgorithm        the hash algorithm with which to sign the message body
      * @param compressionAlgorithm the compression algorithm with which to compress the message body
+     * @throws IllegalArgumentException if any of the recipients' sub keys cannot encrypt data
      */
     public MessageWriter(UnlockedKeySet owner,
                          Collection<KeySet> recipients,
@@ -118,12 +161,169 @@ public class MessageWriter {
                          SymmetricAlgorithm symmetricAlgorithm,
                          HashAlgorithm hashAlgorithm,
                          CompressionAlgorithm compressionAlgorithm) {
+        this(owner,
+             toRecipientSet(recipients),
+             random,
+             symmetricAlgorithm,
+             hashAlgorithm,
+             compressionAlgorithm);
+    }
+
+    /**
+     * Creates a new writer for an encrypted+signed message.
+     *
+     * @param owner      the {@link UnlockedKeySet} belonging to the message owner
+     * @param recipients the {@link RecipientSet} of the recipients
+     * @param random     a {@link SecureRandom} instance
+     */
+    public MessageWriter(UnlockedKeySet owner,
+                         RecipientSet recipients,
+                         SecureRandom random) {
+        this(owner,
+             recipients,
+             random,
+             SymmetricAlgorithm.DEFAULT,
+             HashAlgorithm.DEFAULT,
+             CompressionAlgorithm.DEFAULT);
+    }
+
+    /**
+     * Creates a new writer for an encrypted+signed message.
+     *
+     * @param owner                the {@link UnlockedKeySet} belonging to the message owner
+     * @param recipients           the {@link RecipientSet} of the recipients
+     * @param random               a {@link SecureRandom} instance
+     * @param symmetricAlgorithm   the symmetric algorithm with which to encrypt the message body
+     * @param hashAlgorithm        the hash algorithm with which to sign the message body
+     * @param compressionAlgorithm the compression algorithm with which to compress the message body
+     */
+    public MessageWriter(UnlockedKeySet owner,
+                         RecipientSet recipients,
+                         SecureRandom random,
+                         SymmetricAlgorithm symmetricAlgorithm,
+                         HashAlgorithm hashAlgorithm,
+                         CompressionAlgorithm compressionAlgorithm) {
+        this(owner,
+             recipients,
+             random,
+             symmetricAlgorithm,
+             hashAlgorithm,
+             compressionAlgorithm,
+             null);
+    }
+
+    /**
+     * Creates a new writer for an encrypted+signed message which encrypts the session key for
+     * each recipient in parallel. This is worthwhile for messages with many recipients, especially
+     * those with Elgamal sub keys.
+     * <p/>
+     * Large message bodies, and those written as streams, are also processed in a pipeline: the
+     * body is hashed for the signature, compressed, and encrypted on separate threads, so that
+     * writing a large message isn't limited to the speed of a single core. If the executor has no
+     * threads to spare, the calling thread does the work instead.
+     *
+     * @param owner                the {@link UnlockedKeySet} belonging to the message owner
+     * @param recipients           the {@link RecipientSet} of the recipients
+     * @param random               a {@link SecureRandom} instance
+     * @param symmetricAlgorithm   the symmetric algorithm with which to encrypt the message body
+     * @param hashAlgorithm        the hash algorithm with which to sign the message body
+     * @param compressionAlgorithm the compression algorithm with which to compress the message body
+     * @param executor             an executor on which to encrypt the session key and process the
+     *                             message body, or {@code null} to do everything on the calling
+     *                             thread
+     */
+    public MessageWriter(UnlockedKeySet owner,
+                         RecipientSet recipients,
+                         SecureRandom random,
+                         SymmetricAlgorithm symmetricAlgorithm,
+                         HashAlgorithm hashAlgorithm,
+                         CompressionAlgorithm compressionAlgorithm,
+                         Executor executor) {
+        this(owner,
+             recipients,
+             random,
+             symmetricAlgorithm,
+             hashAlgorithm,
+             compressionAlgorithm,
+             executor,
+             DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Creates a new writer for an encrypted+signed message with the given compression level.
+     * Lower levels are faster, and higher levels produce smaller messages. The level is ignored by
+     * BZIP2.
+     *
+     * @param owner                the {@link UnlockedKeySet} belonging to the message owner
+     * @param recipients           the {@link RecipientSet} of the recipients
+     * @param random               a {@link SecureRandom} instance
+     * @param symmetricAlgorithm   the symmetric algorithm with which to encrypt the message body
+     * @param hashAlgorithm        the hash algorithm with which to sign the message body
+     * @param compressionAlgorithm the compression algorithm with which to compress the message body
+     * @param executor             an executor on which to encrypt the session key and process the
+     *                             message body, or {@code null} to do everything on the calling
+     *                             thread
+     * @param compressionLevel     the compression level, from 0 (stored uncompressed) to 9, or
+     *                             {@link #DEFAULT_COMPRESSION} or {@link #ADAPTIVE_COMPRESSION}
+     * @throws IllegalArgumentException if {@code compressionLevel} is invalid
+     */
+    public MessageWriter(UnlockedKeySet owner,
+                         RecipientSet recipients,
+                         SecureRandom random,
+                         SymmetricAlgorithm symmetricAlgorithm,
+                         HashAlgorithm hashAlgorithm,
+                         CompressionAlgorithm compressionAlgorithm,
+                         Executor executor,
+                         int compressionLevel) {
+        this(owner,
+             recipients,
+             random,
+             symmetricAlgorithm,
+             hashAlgorithm,
+             compressionAlgorithm,
+             executor,
+             compressionLevel,
+             BufferPool.SHARED,
+             SizeEstimator.SHARED);
+    }
+
+    MessageWriter(UnlockedKeySet owner,
+                  RecipientSet recipients,
+                  SecureRandom random,
+                  SymmetricAlgorithm symmetricAlgorithm,
+                  HashAlgorithm hashAlgorithm,
+                  CompressionAlgorithm compressionAlgorithm,
+                  Executor executor,
+                  int compressionLevel,
+                  BufferPool pool,
+                  SizeEstimator estimator) {
+        if (compressionLevel < ADAPTIVE_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+        }
         this.owner = owner;
-        this.recipients = recipients;
+        // the owner can always read their own messages
+        this.recipients = recipients.withLast(owner);
         this.random = random;
         this.symmetricAlgorithm = symmetricAlgorithm;
         this.hashAlgorithm = hashAlgorithm;
         this.compressionAlgorithm = compressionAlgorithm;
+        this.executor = executor;
+        this.compressionLevel = compressionLevel;
+        this.pool = pool;
+        this.estimator = estimator;
+        this.signatureOverhead = signatureOverhead(owner.getUnlockedMasterKey());
+    }
+
+    /**
+     * Returns the estimated ratio of a message body's size once signed and compressed to its
+     * original size, as learned from the messages written so far with this writer's compression
+     * algorithm and level. Until enough messages have been written, a conservative default is
+     * returned.
+     * <p/>
+     * Writers use the estimate to allocate buffers of about the right size for messages.
+     */
+    public double getEstimatedCompressionRatio() {
+        return estimator.getRatio(compressionAlgorithm, compressionLevel);
     }
 
     /**
@@ -135,72 +335,417 @@ public class MessageWriter {
      */
     public byte[] write(byte[] body) throws CryptographicException {
         try {
+            if (isSmall(body.length)) {
+                return encrypt(signAndCompress(body));
+            }
+
             final ByteArrayOutputStream output = new ByteArrayOutputStream(estimateEncryptedSize(body.length));
             write(body, output);
+            recordSignedSize(body.length, output.size() - encryptionOverhead(body.length));
             return output.toByteArray();
         } catch (IOException e) {
             throw new CryptographicException(e);
         }
     }
 
+    /**
+     * Signs, compresses, and encrypts a message, writing it to the given output stream.
+     *
+     * @param body   the message body
+     * @param output the output stream to which the encrypted+signed message will be written
+     * @throws CryptographicException if any error occurs while processing the message
+     * @throws IOException            if there is an error writing to {@code output}
+     */
     public void write(byte[] body, OutputStream output) throws CryptographicException, IOException {
+        if (isSmall(body.length)) {
+            encrypt(signAndCompress(body), output);
+            return;
+        }
+
+        final OutputStream input = openEncryptingStream(output, isPipelined(body.length));
+        boolean written = false;
+        try {
+            input.write(body);
+            input.close();
+            written = true;
+        } catch (CryptographicIOException e) {
+            throw e.getCause();
+        } finally {
+            if (!written) {
+                abandon(input);
+            }
+        }
+    }
+
+    /**
+     * Signs, compresses, and encrypts a message as it is read from the given input stream, writing
+     * it to the given output stream. The message body is never held in memory in its entirety.
+     * <p/>
+     * If {@code body} can't be read to its end, the message is abandoned: whatever has been written
+     * to {@code output} is left without a signature or integrity packet, and won't be readable.
+     *
+     * @param body   an input stream of the message body
+     * @param output the output stream to which the encrypted+signed message will be written
+     * @throws CryptographicException if any error occurs while processing the message
+     * @throws IOException            if there is an error reading from {@code body} or writing to
+     *                                {@code output}
+     */
+    public void write(InputStream body, OutputStream output) throws CryptographicException, IOException {
+        final OutputStream input = openEncryptingStream(output, executor != null);
+        final byte[] b = pool.acquire(BUFFER_SIZE);
+        boolean written = false;
+        try {
+            int r;
+            while ((r = body.read(b)) >= 0) {
+                input.write(b, 0, r);
+            }
+            input.close();
+            written = true;
+        } catch (CryptographicIOException e) {
+            throw e.getCause();
+        } finally {
+            if (!written) {
+                abandon(input);
+            }
+            pool.release(b);
+        }
+    }
+
+    /**
+     * Signs and compresses a message body without encrypting it, so that it can be encrypted to
+     * several sets of recipients without being signed and compressed again.
+     * <p/>
+     * The payload can be encrypted by any {@link MessageWriter}, but will only be readable by
+     * {@link MessageReader}s expecting messages from this writer's owner.
+     *
+     * @param body the message body
+     * @return the signed and compressed message body
+     * @throws CryptographicException if any error occurs while processing the message
+     * @see #write(SignedPayload)
+     */
+    public SignedPayload sign(byte[] body) throws CryptographicException {
+        try {
+            if (isSmall(body.length)) {
+                return new SignedPayload(signAndCompress(body));
+            }
+
+            final ByteArrayOutputStream output = new ByteArrayOutputStream(estimateSignedSize(body.length));
+            try (OutputStream input = openSigningStream(output, isPipelined(body.length))) {
+                input.write(body);
+            }
+            recordSignedSize(body.length, output.size());
+            return new SignedPayload(output.toByteArray());
+        } catch (CryptographicIOException e) {
+            throw e.getCause();
+        } catch (IOException e) {
+            throw new CryptographicException(e);
+        }
+    }
+
+    /**
+     * Encrypts a signed and compressed message body.
+     *
+     * @param payload a signed and compressed message body
+     * @return the message, in an encrypted+signed OpenPGP envelope
+     * @throws CryptographicException if any error occurs while processing the message
+     * @see #sign(byte[])
+     */
+    public byte[] write(SignedPayload payload) throws CryptographicException {
+        try {
+            return encrypt(payload.getEncoded());
+        } catch (IOException e) {
+            throw new CryptographicException(e);
+        }
+    }
+
+    /**
+     * Encrypts a signed and compressed message body, writing it to the given output stream.
+     *
+     * @param payload a signed and compressed message body
+     * @param output  the output stream to which the encrypted+signed message will be written
+     * @throws CryptographicException if any error occurs while processing the message
+     * @throws IOException            if there is an error writing to {@code output}
+     * @see #sign(byte[])
+     */
+    public void write(SignedPayload payload, OutputStream output) throws CryptographicException, IOException {
+        encrypt(payload.getEncoded(), output);
+    }
+
+    /**
+     * Returns an output stream which signs, compresses, and encrypts everything written to it,
+     * writing the encrypted+signed message to the given output stream. The message is only complete
+     * once the returned stream has been closed; closing it does not close {@code output}.
+     * <p/>
+     * Because {@link OutputStream} methods can only throw {@link IOException}s, any cryptographic
+     * errors encountered while writing to or closing the returned stream are thrown as
+     * {@link IOException}s whose cause is a {@link CryptographicException}.
+     *
+     * @param output the output stream to which the encrypted+signed message will be written
+     * @return an output stream for the message body
+     * @throws CryptographicException if any error occurs while starting the message
+     * @throws IOException            if there is an error writing to {@code output}
+     */
+    public OutputStream openEncryptingStream(OutputStream output) throws CryptographicException, IOException {
+        return openEncryptingStream(output, executor != null);
+    }
+
+    private OutputStream openEncryptingStream(OutputStream output, boolean pipelined) throws CryptographicException, IOException {
+        try {
+            return openSigningStream(getEncryptionWrapper(output), pipelined);
+        } catch (PGPException e) {
+            throw new CryptographicException(e);
+        }
+    }
+
+    /*
+     * Returns an output stream which signs and compresses everything written to it, writing the
+     * compressed data packet to the given output stream and closing it when done. If pipelined,
+     * hashing, compression, and writing to the given output stream each happen on a separate
+     * stage, and compression is itself spread across the executor.
+     */
+    private OutputStream openSigningStream(OutputStream output, boolean pipelined) throws CryptographicException, IOException {
         try {
-            try (OutputStream encryptedOutput = getEncryptionWrapper(output)) {
-                signAndCompress(body, encryptedOutput);
+            final Pipeline pipeline = pipelined ? new Pipeline(executor, pool) : null;
+            if (pipelined) {
+                output = pipeline.openStage(output);
+            }
+
+            final OutputStream compressedOutput = getCompressionWrapper(output, pipelined);
+            final PGPSignatureGenerator signatureGenerator = getSignatureGenerator(owner.getUnlockedMasterKey());
+            signatureGenerator.generateOnePassVersion(false).encode(compressedOutput);
+            final OutputStream literalOutput = getLiteralWrapper(compressedOutput);
+            if (pipelined) {
+                return new PipelinedSigningOutputStream(pipeline, literalOutput, signatureGenerator,
+                                                        compressedOutput, output);
+            }
+            return new SigningOutputStream(literalOutput, signatureGenerator, compressedOutput, output);
+        } catch (PGPException e) {
+            throw new CryptographicException(e);
+        }
+    }
+
+    /*
+     * Gives up on a message without finishing its packets, so that a partly-written message can't
+     * be mistaken for a complete one, and releases the resources its streams hold.
+     */
+    private static void abandon(OutputStream... streams) {
+        for (OutputStream stream : streams) {
+            if (stream instanceof Abandonable) {
+                ((Abandonable) stream).abandon();
             }
+        }
+    }
+
+    /*
+     * Small message bodies are signed and compressed in memory, so that every packet can be written
+     * with a definite length, without the generators' buffers.
+     */
+    private static boolean isSmall(int bodySize) {
+        return bodySize < SMALL_MESSAGE_THRESHOLD;
+    }
+
+    /*
+     * Signs and compresses a small message body into a compressed data packet with a definite
+     * length. The length of the compressed data isn't known until it has all been written, so the
+     * packet is compressed with an indeterminate length and then given a definite one.
+     */
+    private byte[] signAndCompress(byte[] body) throws CryptographicException, IOException {
+        try {
+            final PacketBuffer buffer = new PacketBuffer(estimateSignedSize(body.length));
+            final OutputStream compressedOutput = getCompressionWrapper(buffer, false);
+            final PGPSignatureGenerator signatureGenerator = getSignatureGenerator(owner.getUnlockedMasterKey());
+            signatureGenerator.generateOnePassVersion(false).encode(compressedOutput);
+            try (OutputStream literalOutput = new PGPLiteralDataGenerator().open(compressedOutput,
+                                                                                 PGPLiteralData.BINARY,
+                                                                                 PGPLiteralData.CONSOLE,
+                                                                                 body.length,
+                                                                                 new Date())) {
+                literalOutput.write(body);
+            }
+            signatureGenerator.update(body);
+            signatureGenerator.generate().encode(compressedOutput);
+            compressedOutput.close();
+
+            final byte[] packet = buffer.toDefiniteLengthPacket(PacketTags.COMPRESSED_DATA);
+            recordSignedSize(body.length, packet.length);
+            return packet;
         } catch (PGPException | SignatureException e) {
             throw new CryptographicException(e);
         }
     }
 
     /*
-     * This formula was empirically determined to return a buffer size which
-     * will fit most messages, including envelope overhead and per-recipient
-     * overhead. Some messages may require another buffer allocation, but this
-     * should be rare.
+     * Encrypts a compressed data packet into an array of exactly the message's size.
+     */
+    private byte[] encrypt(final byte[] packet) throws CryptographicException, IOException {
+        final ExactSizeOutputStream output = new ExactSizeOutputStream(recipients.getSessionKeyPacketSize());
+        final PGPDataEncryptorBuilder builder = getDataEncryptorBuilder();
+        encrypt(packet, output, new PGPDataEncryptorBuilder() {
+            @Override
+            public int getAlgorithm() {
+                return builder.getAlgorithm();
+            }
+
+            @Override
+            public SecureRandom getSecureRandom() {
+                return builder.getSecureRandom();
+            }
+
+            @Override
+            public PGPDataEncryptor build(byte[] keyBytes) throws PGPException {
+                // the session key packets have all been written, and all that's left is the
+                // encrypted data packet, whose size depends only on the cipher's block size
+                final PGPDataEncryptor encryptor = builder.build(keyBytes);
+                output.allocate(encryptedPacketSize(packet.length, encryptor.getBlockSize()));
+                return encryptor;
+            }
+        });
+        return output.toByteArray();
+    }
+
+    private void encrypt(byte[] packet, OutputStream output) throws CryptographicException, IOException {
+        encrypt(packet, output, getDataEncryptorBuilder());
+    }
+
+    private void encrypt(byte[] packet,
+                         OutputStream output,
+                         PGPDataEncryptorBuilder builder) throws CryptographicException, IOException {
+        try (OutputStream encryptedOutput = getEncryptedDataGenerator(builder).open(output, packet.length)) {
+            encryptedOutput.write(packet);
+        } catch (PGPException e) {
+            throw new CryptographicException(e);
+        }
+    }
+
+    /*
+     * An integrity-protected data packet holds a version number, a random prefix of a block plus
+     * two bytes, the encrypted packet, and a modification detection code packet holding a SHA-1
+     * hash.
+     */
+    private static int encryptedPacketSize(int packetSize, int blockSize) {
+        final int bodyLength = 1 + blockSize + 2 + packetSize + 2 + 20;
+        return PacketHeader.encode(PacketTags.SYM_ENC_INTEGRITY_PRO, bodyLength).length + bodyLength;
+    }
+
+    /*
+     * Pipelining costs a few context switches per block, which is only worth it for bodies much
+     * larger than a block.
      */
+    private boolean isPipelined(int bodySize) {
+        return executor != null && bodySize >= PIPELINE_THRESHOLD;
+    }
+
     private int estimateEncryptedSize(int unencryptedSize) {
-        return (int) Math.round(Math.ceil(
-                (unencryptedSize * ENVELOPE_OVERHEAD) +
-                        (recipients.size() * RECIPIENT_OVERHEAD)
-        ));
+        return estimateSignedSize(unencryptedSize) + encryptionOverhead(unencryptedSize);
+    }
+
+    /*
+     * The session key packets, the encrypted data packet's framing, and a byte for each partial
+     * body length in the literal and encrypted data packets.
+     */
+    private int encryptionOverhead(int unencryptedSize) {
+        return recipients.getSessionKeyPacketSize() + ENCRYPTION_OVERHEAD + 2 * (unencryptedSize / BUFFER_SIZE + 1);
+    }
+
+    private static RecipientSet toRecipientSet(Collection<KeySet> recipients) {
+        try {
+            return new RecipientSet(recipients);
+        } catch (CryptographicException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
     }
 
-    private void signAndCompress(byte[] body, OutputStream encryptedOutput) throws IOException, PGPException, SignatureException {
-        final OutputStream compressedOutput = getCompressionWrapper(encryptedOutput);
-        sign(body, compressedOutput);
-        compressedOutput.close();
+    private int estimateSignedSize(int unsignedSize) {
+        return estimator.estimate(compressionAlgorithm, compressionLevel, unsignedSize) + signatureOverhead;
+    }
+
+    /*
+     * The signature's overhead doesn't depend on the body, so it's left out of the compression
+     * ratio, which would otherwise be skewed by small bodies.
+     */
+    private void recordSignedSize(int unsignedSize, int signedSize) {
+        estimator.record(compressionAlgorithm, compressionLevel, unsignedSize, signedSize - signatureOverhead);
     }
 
-    private void sign(byte[] body, OutputStream compressedOutput) throws PGPException, IOException, SignatureException {
-        final PGPSignatureGenerator signatureGenerator = getSignatureGenerator(owner.getUnlockedMasterKey());
-        signatureGenerator.generateOnePassVersion(false).encode(compressedOutput);
-        final OutputStream literalOutput = getLiteralWrapper(compressedOutput);
-        literalOutput.write(body);
-        signatureGenerator.update(body);
-        literalOutput.close();
-        signatureGenerator.generate().encode(compressedOutput);
+    private static int signatureOverhead(UnlockedMasterKey owner) {
+        final int signatureSize;
+        switch (owner.getAlgorithm()) {
+            case RSA:
+            case RSA_S:
+                signatureSize = 2 + (owner.getSize() + 7) / 8;
+                break;
+            default:
+                signatureSize = MAX_DSA_SIGNATURE_SIZE;
+                break;
+        }
+        return SIGNATURE_PACKET_OVERHEAD + owner.getUserID().getBytes(StandardCharsets.UTF_8).length + signatureSize;
     }
 
     private OutputStream getEncryptionWrapper(OutputStream out) throws IOException, PGPException {
-        final PGPEncryptedDataGenerator encryptedDataGenerator = new PGPEncryptedDataGenerator(
-                new BcPGPDataEncryptorBuilder(symmetricAlgorithm.value())
-                        .setWithIntegrityPacket(true)
-                        .setSecureRandom(random));
+        final byte[] buffer = pool.acquire(BUFFER_SIZE);
+        return new PooledBufferOutputStream(getEncryptedDataGenerator(getDataEncryptorBuilder()).open(out, buffer),
+                                            buffer,
+                                            pool);
+    }
 
-        for (KeySet recipient : recipients) {
-            if (recipient.getSubKey().getKeyID() != owner.getSubKey().getKeyID()) {
-                encryptedDataGenerator.addMethod(new BcPublicKeyKeyEncryptionMethodGenerator(recipient.getSubKey().getPublicKey()));
-            }
+    private PGPDataEncryptorBuilder getDataEncryptorBuilder() {
+        return new BcPGPDataEncryptorBuilder(symmetricAlgorithm.value())
+                .setWithIntegrityPacket(true)
+                .setSecureRandom(random);
+    }
+
+    private PGPEncryptedDataGenerator getEncryptedDataGenerator(PGPDataEncryptorBuilder builder) {
+        final PGPEncryptedDataGenerator encryptedDataGenerator = new PGPEncryptedDataGenerator(builder);
+
+        List<PGPKeyEncryptionMethodGenerator> methods = recipients.getMethods(random);
+        if (executor != null && methods.size() > 1) {
+            methods = ParallelKeyEncryptionMethodGenerator.wrap(methods, executor);
         }
 
-        encryptedDataGenerator.addMethod(new BcPublicKeyKeyEncryptionMethodGenerator(owner.getSubKey().getPublicKey()));
+        for (PGPKeyEncryptionMethodGenerator method : methods) {
+            encryptedDataGenerator.addMethod(method);
+        }
+        return encryptedDataGenerator;
+    }
+
+    private OutputStream getCompressionWrapper(final OutputStream out, final boolean parallel) throws IOException {
+        if (compressionLevel == ADAPTIVE_COMPRESSION) {
+            return new AdaptiveCompressorOutputStream() {
+                @Override
+                protected OutputStream open(boolean compressible) throws IOException {
+                    if (compressible) {
+                        return getCompressionWrapper(out, parallel, compressionAlgorithm, DEFAULT_COMPRESSION);
+                    }
 
-        return encryptedDataGenerator.open(out, new byte[BUFFER_SIZE]);
+                    // stored DEFLATE blocks are still compressed data, so the body is never
+                    // encrypted without being compressed
+                    final CompressionAlgorithm algorithm =
+                            ParallelDeflaterOutputStream.isSupported(compressionAlgorithm) ?
+                                    compressionAlgorithm : CompressionAlgorithm.ZIP;
+                    return getCompressionWrapper(out, parallel, algorithm, Deflater.NO_COMPRESSION);
+                }
+            };
+        }
+        return getCompressionWrapper(out, parallel, compressionAlgorithm, compressionLevel);
     }
 
-    private OutputStream getCompressionWrapper(OutputStream out) throws IOException {
-        return new PGPCompressedDataGenerator(compressionAlgorithm.value()).open(out);
+    private OutputStream getCompressionWrapper(OutputStream out,
+                                               boolean parallel,
+                                               CompressionAlgorithm algorithm,
+                                               int level) throws IOException {
+        // storing data uncompressed is cheap enough that it's not worth spreading out
+        if (parallel && level != Deflater.NO_COMPRESSION) {
+            if (ParallelDeflaterOutputStream.isSupported(algorithm)) {
+                return new ParallelDeflaterOutputStream(out, algorithm, level, executor, pool);
+            }
+            if (algorithm == CompressionAlgorithm.BZIP2) {
+                return new ParallelBZip2OutputStream(out, executor);
+            }
+        }
+        if (ParallelDeflaterOutputStream.isSupported(algorithm)) {
+            return PooledDeflaterOutputStream.open(out, algorithm, level, pool);
+        }
+        return new PGPCompressedDataGenerator(algorithm.value(), level).open(out);
     }
 
     private PGPSignatureGenerator getSignatureGenerator(UnlockedMasterKey owner) throws PGPException {
@@ -217,10 +762,297 @@ public class MessageWriter {
     }
 
     private OutputStream getLiteralWrapper(OutputStream output) throws IOException {
-        return new PGPLiteralDataGenerator().open(output,
-                                                  PGPLiteralData.BINARY,
-                                                  PGPLiteralData.CONSOLE,
-                                                  new Date(),
-                                                  new byte[BUFFER_SIZE]);
+        final byte[] buffer = pool.acquire(BUFFER_SIZE);
+        return new PooledBufferOutputStream(new PGPLiteralDataGenerator().open(output,
+                                                                               PGPLiteralData.BINARY,
+                                                                               PGPLiteralData.CONSOLE,
+                                                                               new Date(),
+                                                                               buffer),
+                                            buffer,
+                                            pool);
+    }
+
+    /**
+     * Buffers a packet written with an indeterminate length, so that it can be given a definite
+     * length once it's complete.
+     */
+    private static class PacketBuffer extends ByteArrayOutputStream {
+        private PacketBuffer(int size) {
+            super(size);
+        }
+
+        /**
+         * Returns the buffered packet with a definite length.
+         */
+        private byte[] toDefiniteLengthPacket(int tag) {
+            // an old format header with an indeterminate length is a single octet
+            if (count == 0 || buf[0] != (byte) (0x80 | (tag << 2) | 3)) {
+                throw new IllegalStateException("Expected a packet of indeterminate length");
+            }
+
+            final byte[] header = PacketHeader.encode(tag, count - 1);
+            final byte[] packet = new byte[header.length + count - 1];
+            System.arraycopy(header, 0, packet, 0, header.length);
+            System.arraycopy(buf, 1, packet, header.length, count - 1);
+            return packet;
+        }
+    }
+
+    /**
+     * Collects a message in an array of exactly the message's size. The session key packets are
+     * buffered until the size of the rest of the message is known.
+     */
+    private static class ExactSizeOutputStream extends OutputStream {
+        private final ByteArrayOutputStream head;
+        private byte[] message;
+        private int count;
+
+        private ExactSizeOutputStream(int headSize) {
+            this.head = new ByteArrayOutputStream(headSize);
+        }
+
+        /**
+         * Allocates the message, once the size of everything left to write is known.
+         */
+        private void allocate(int remaining) {
+            this.message = new byte[head.size() + remaining];
+            this.count = head.size();
+            System.arraycopy(head.toByteArray(), 0, message, 0, count);
+        }
+
+        @Override
+        public void write(int b) {
+            if (message == null) {
+                head.write(b);
+            } else {
+                checkRemaining(1);
+                message[count++] = (byte) b;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (message == null) {
+                head.write(b, off, len);
+            } else {
+                checkRemaining(len);
+                System.arraycopy(b, off, message, count, len);
+                count += len;
+            }
+        }
+
+        private byte[] toByteArray() {
+            if (message == null || count != message.length) {
+                throw new IllegalStateException("Message is smaller than expected");
+            }
+            return message;
+        }
+
+        private void checkRemaining(int len) {
+            if (len > message.length - count) {
+                throw new IllegalStateException("Message is larger than expected");
+            }
+        }
+    }
+
+    /**
+     * Returns a generator's buffer to the pool once the generator's stream has been closed.
+     */
+    private static class PooledBufferOutputStream extends FilterOutputStream implements Abandonable {
+        private final byte[] buffer;
+        private final BufferPool pool;
+        private boolean closed;
+
+        private PooledBufferOutputStream(OutputStream out, byte[] buffer, BufferPool pool) {
+            super(out);
+            this.buffer = buffer;
+            this.pool = pool;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            try {
+                out.close();
+            } finally {
+                pool.release(buffer);
+            }
+        }
+
+        @Override
+        public void abandon() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            pool.release(buffer);
+        }
+    }
+
+    /**
+     * Writes the message body to the literal data packet, feeding it to the signature generator as
+     * it goes, and finishes each of the enclosing packets when closed.
+     */
+    private static class SigningOutputStream extends FilterOutputStream implements Abandonable {
+        private final PGPSignatureGenerator signatureGenerator;
+        private final OutputStream compressedOutput;
+        private final OutputStream output;
+        private boolean closed;
+
+        private SigningOutputStream(OutputStream literalOutput,
+                                    PGPSignatureGenerator signatureGenerator,
+                                    OutputStream compressedOutput,
+                                    OutputStream output) {
+            super(literalOutput);
+            this.signatureGenerator = signatureGenerator;
+            this.compressedOutput = compressedOutput;
+            this.output = output;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            try {
+                signatureGenerator.update((byte) b);
+            } catch (SignatureException e) {
+                throw new CryptographicIOException(new CryptographicException(e));
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            try {
+                signatureGenerator.update(b, off, len);
+            } catch (SignatureException e) {
+                throw new CryptographicIOException(new CryptographicException(e));
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            boolean finished = false;
+            try {
+                out.close();
+                signatureGenerator.generate().encode(compressedOutput);
+                compressedOutput.close();
+                output.close();
+                finished = true;
+            } catch (PGPException | SignatureException e) {
+                throw new CryptographicIOException(new CryptographicException(e));
+            } finally {
+                if (!finished) {
+                    MessageWriter.abandon(out, compressedOutput, output);
+                }
+            }
+        }
+
+        @Override
+        public void abandon() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            MessageWriter.abandon(out, compressedOutput, output);
+        }
+    }
+
+    /**
+     * Hands the message body to two pipeline stages, one which feeds it to the signature generator
+     * and one which writes it to the literal data packet, and finishes each of the enclosing
+     * packets when closed, once both stages are done.
+     */
+    private static class PipelinedSigningOutputStream extends FilterOutputStream implements Abandonable {
+        private final OutputStream literalOutput;
+        private final PGPSignatureGenerator signatureGenerator;
+        private final OutputStream compressedOutput;
+        private final OutputStream output;
+        private boolean closed;
+
+        private PipelinedSigningOutputStream(Pipeline pipeline,
+                                             OutputStream literalOutput,
+                                             final PGPSignatureGenerator signatureGenerator,
+                                             OutputStream compressedOutput,
+                                             OutputStream output) {
+            super(pipeline.new StageOutputStream(
+                    pipeline.new Stage() {
+                        @Override
+                        protected void process(Pipeline.Block block) throws IOException {
+                            try {
+                                signatureGenerator.update(block.getData(), 0, block.getLength());
+                            } catch (SignatureException e) {
+                                throw new CryptographicIOException(new CryptographicException(e));
+                            }
+                        }
+                    },
+                    pipeline.writingTo(literalOutput)));
+            this.literalOutput = literalOutput;
+            this.signatureGenerator = signatureGenerator;
+            this.compressedOutput = compressedOutput;
+            this.output = output;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            boolean finished = false;
+            try {
+                out.close(); // waits for the hashing and literal stages
+                literalOutput.close();
+                signatureGenerator.generate().encode(compressedOutput);
+                compressedOutput.close();
+                output.close(); // waits for the encryption stage
+                finished = true;
+            } catch (PGPException | SignatureException e) {
+                throw new CryptographicIOException(new CryptographicException(e));
+            } finally {
+                if (!finished) {
+                    abandonStreams();
+                }
+            }
+        }
+
+        @Override
+        public void abandon() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            abandonStreams();
+        }
+
+        /*
+         * Each stage is cancelled before the streams it writes to are released, so no stage is
+         * still writing to a buffer once it's back in the pool.
+         */
+        private void abandonStreams() {
+            MessageWriter.abandon(out, literalOutput, compressedOutput, output);
+        }
     }
 }
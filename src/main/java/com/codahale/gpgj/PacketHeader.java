@@ -0,0 +1,153 @@
+package com.codahale.gpgj;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The header of an OpenPGP packet, read from a stream without reading its body.
+ * <p/>
+ * Unlike {@link org.bouncycastle.bcpg.BCPGInputStream}, this keeps the header's bytes exactly as
+ * they were read, so that a packet can be copied without being re-encoded.
+ *
+ * @see <a href="http://www.ietf.org/rfc/rfc4880.txt">Section 4.2, RFC 4880</a>
+ */
+class PacketHeader {
+    /**
+     * The length of a packet whose body length isn't given by its header, either because it is
+     * encoded with partial body lengths or because it is of indeterminate length.
+     */
+    static final long UNKNOWN_LENGTH = -1;
+
+    private final int tag;
+    private final long bodyLength;
+    private final byte[] encoded;
+
+    private PacketHeader(int tag, long bodyLength, byte[] encoded) {
+        this.tag = tag;
+        this.bodyLength = bodyLength;
+        this.encoded = encoded;
+    }
+
+    /**
+     * Reads a packet header from the given input stream.
+     *
+     * @param input an input stream positioned at the start of a packet
+     * @return the packet's header, or {@code null} if {@code input} is at its end
+     * @throws IOException if {@code input} doesn't contain a valid header
+     */
+    static PacketHeader read(InputStream input) throws IOException {
+        final int ctb = input.read();
+        if (ctb < 0) {
+            return null;
+        }
+
+        if ((ctb & 0x80) == 0) {
+            throw new IOException("Invalid packet header: " + Integer.toHexString(ctb));
+        }
+
+        final ByteArrayOutputStream encoded = new ByteArrayOutputStream(6);
+        encoded.write(ctb);
+
+        if ((ctb & 0x40) != 0) {
+            // new format
+            final int first = readByte(input, encoded);
+            final long length;
+            if (first < 192) {
+                length = first;
+            } else if (first <= 223) {
+                length = ((first - 192) << 8) + readByte(input, encoded) + 192;
+            } else if (first == 255) {
+                length = readLength(input, encoded, 4);
+            } else {
+                length = UNKNOWN_LENGTH; // the first partial body length
+            }
+            return new PacketHeader(ctb & 0x3f, length, encoded.toByteArray());
+        }
+
+        // old format
+        final long length;
+        switch (ctb & 0x03) {
+            case 0:
+                length = readLength(input, encoded, 1);
+                break;
+            case 1:
+                length = readLength(input, encoded, 2);
+                break;
+            case 2:
+                length = readLength(input, encoded, 4);
+                break;
+            default:
+                length = UNKNOWN_LENGTH;
+                break;
+        }
+        return new PacketHeader((ctb & 0x3f) >> 2, length, encoded.toByteArray());
+    }
+
+    /**
+     * Returns a new format packet header with a definite body length, as
+     * {@link org.bouncycastle.bcpg.BCPGOutputStream} writes it.
+     *
+     * @param tag        the packet's tag
+     * @param bodyLength the length of the packet's body
+     * @return the encoded header
+     */
+    static byte[] encode(int tag, long bodyLength) {
+        final byte ctb = (byte) (0xC0 | tag);
+        if (bodyLength < 192) {
+            return new byte[]{ctb, (byte) bodyLength};
+        }
+
+        if (bodyLength <= 8383) {
+            final long length = bodyLength - 192;
+            return new byte[]{ctb, (byte) ((length >> 8) + 192), (byte) length};
+        }
+
+        return new byte[]{
+                ctb, (byte) 0xFF,
+                (byte) (bodyLength >> 24), (byte) (bodyLength >> 16), (byte) (bodyLength >> 8), (byte) bodyLength
+        };
+    }
+
+    /**
+     * Returns the packet's tag.
+     *
+     * @see org.bouncycastle.bcpg.PacketTags
+     */
+    int getTag() {
+        return tag;
+    }
+
+    /**
+     * Returns the length of the packet's body, or {@link #UNKNOWN_LENGTH}.
+     */
+    long getBodyLength() {
+        return bodyLength;
+    }
+
+    /**
+     * Writes the header, exactly as it was read, to the given output stream.
+     */
+    void writeTo(OutputStream output) throws IOException {
+        output.write(encoded);
+    }
+
+    private static long readLength(InputStream input, ByteArrayOutputStream encoded, int size) throws IOException {
+        long length = 0;
+        for (int i = 0; i < size; i++) {
+            length = (length << 8) | readByte(input, encoded);
+        }
+        return length;
+    }
+
+    private static int readByte(InputStream input, ByteArrayOutputStream encoded) throws IOException {
+        final int b = input.read();
+        if (b < 0) {
+            throw new EOFException("Truncated packet header");
+        }
+        encoded.write(b);
+        return b;
+    }
+}
@@ -0,0 +1,170 @@
+package com.codahale.gpgj;
+
+import org.bouncycastle.apache.bzip2.CBZip2OutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * An output stream which writes a BZIP2 compressed data packet, compressing chunks of the data on
+ * several threads at once.
+ * <p/>
+ * As in pbzip2, each chunk is compressed into a bzip2 block of its own. Rather than concatenating
+ * several complete bzip2 streams, which GnuPG doesn't read, the blocks are extracted from each
+ * chunk's stream and joined, bit by bit, into a single stream with a single header and a combined
+ * CRC, exactly as if a single compressor had written them.
+ */
+class ParallelBZip2OutputStream extends ParallelCompressorOutputStream<ParallelBZip2OutputStream.Block> {
+    /*
+     * Run-length encoding can expand a chunk by up to 5/4 before it is packed into a block, and a
+     * block holds at most 900,000 bytes (less a little slack), so this size guarantees that each
+     * chunk fits in a single block.
+     */
+    static final int CHUNK_SIZE = 700000;
+    private static final int BLOCK_SIZE_100K = 9;
+    private static final long BLOCK_MAGIC = 0x314159265359L;
+    private static final long END_OF_STREAM_MAGIC = 0x177245385090L;
+    private static final int HEADER_BITS = 32; // "BZh9"
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(CHUNK_SIZE / 2);
+    private int combinedCRC;
+    private int bits;
+    private int bitCount;
+
+    /**
+     * Starts a compressed data packet.
+     *
+     * @param output   the output stream to which the packet will be written
+     * @param executor an executor on which to compress chunks
+     * @throws IOException if there is an error writing to {@code output}
+     */
+    ParallelBZip2OutputStream(OutputStream output, Executor executor) throws IOException {
+        super(output, CompressionAlgorithm.BZIP2, CHUNK_SIZE, executor);
+        getPacket().write(new byte[]{'B', 'Z', 'h', (byte) ('0' + BLOCK_SIZE_100K)});
+    }
+
+    @Override
+    protected Callable<Block> compress(final byte[] chunk, final int length, boolean last) {
+        return new Callable<Block>() {
+            @Override
+            public Block call() throws IOException {
+                if (length == 0) {
+                    return null;
+                }
+                return compressBlock(chunk, length);
+            }
+        };
+    }
+
+    @Override
+    protected void writeChunk(Block block, OutputStream packet) throws IOException {
+        if (block == null) {
+            return;
+        }
+
+        combinedCRC = Integer.rotateLeft(combinedCRC, 1) ^ block.crc;
+        copyBits(block.data, block.start, block.end);
+        flushBuffer(packet);
+    }
+
+    @Override
+    protected void writeTrailer(OutputStream packet) throws IOException {
+        writeBits(END_OF_STREAM_MAGIC >>> 24, 24);
+        writeBits(END_OF_STREAM_MAGIC, 24);
+        writeBits(combinedCRC >>> 16, 16);
+        writeBits(combinedCRC, 16);
+        if (bitCount > 0) {
+            writeBits(0, 8 - bitCount);
+        }
+        flushBuffer(packet);
+    }
+
+    static Block compressBlock(byte[] chunk, int length) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream(length / 2 + 64);
+        try (OutputStream compressor = new CBZip2OutputStream(output, BLOCK_SIZE_100K)) {
+            for (int i = 0; i < length; i++) {
+                compressor.write(chunk[i]);
+            }
+        }
+        final byte[] data = output.toByteArray();
+        final long totalBits = data.length * 8L;
+
+        // a single block follows the header: its magic number, its CRC, and then its contents
+        if (readBits(data, HEADER_BITS, 48) != BLOCK_MAGIC) {
+            throw new IOException("Missing bzip2 block");
+        }
+        final int crc = (int) readBits(data, HEADER_BITS + 48, 32);
+
+        // the stream is then ended by a magic number and the stream CRC, which for a single block
+        // is the block's CRC, and padded to a whole byte
+        for (int padding = 0; padding < 8; padding++) {
+            final long end = totalBits - padding - 80;
+            if (end > HEADER_BITS &&
+                    readBits(data, end, 48) == END_OF_STREAM_MAGIC &&
+                    (int) readBits(data, end + 48, 32) == crc) {
+                return new Block(data, HEADER_BITS, end, crc);
+            }
+        }
+        throw new IOException("Missing end of bzip2 stream");
+    }
+
+    private static long readBits(byte[] data, long offset, int n) {
+        long value = 0;
+        for (long bit = offset; bit < offset + n; bit++) {
+            value = (value << 1) | ((data[(int) (bit >>> 3)] >>> (7 - (int) (bit & 7))) & 1);
+        }
+        return value;
+    }
+
+    private void copyBits(byte[] data, long from, long to) {
+        long bit = from;
+        final int shift = (int) (bit & 7);
+        while (to - bit >= 8) {
+            final int i = (int) (bit >>> 3);
+            final int b = (shift == 0) ? data[i] : (data[i] << shift) | ((data[i + 1] & 0xFF) >>> (8 - shift));
+            writeBits(b, 8);
+            bit += 8;
+        }
+
+        if (bit < to) {
+            writeBits(readBits(data, bit, (int) (to - bit)), (int) (to - bit));
+        }
+    }
+
+    /*
+     * Writes the low n bits of the value, n <= 24.
+     */
+    private void writeBits(long value, int n) {
+        bits = (bits << n) | (int) (value & ((1 << n) - 1));
+        bitCount += n;
+        while (bitCount >= 8) {
+            buffer.write(bits >>> (bitCount - 8));
+            bitCount -= 8;
+        }
+        bits &= (1 << bitCount) - 1;
+    }
+
+    private void flushBuffer(OutputStream packet) throws IOException {
+        buffer.writeTo(packet);
+        buffer.reset();
+    }
+
+    /**
+     * A compressed bzip2 block, as a range of bits in a complete stream.
+     */
+    static class Block {
+        private final byte[] data;
+        private final long start;
+        private final long end;
+        private final int crc;
+
+        private Block(byte[] data, long start, long end, int crc) {
+            this.data = data;
+            this.start = start;
+            this.end = end;
+            this.crc = crc;
+        }
+    }
+}
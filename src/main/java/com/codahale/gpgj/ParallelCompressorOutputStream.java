@@ -0,0 +1,200 @@
+package com.codahale.gpgj;
+
+import org.bouncycastle.bcpg.BCPGOutputStream;
+import org.bouncycastle.bcpg.PacketTags;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * An output stream which writes a compressed data packet, compressing chunks of the data on
+ * several threads at once and writing the compressed chunks in order.
+ * <p/>
+ * Chunks are compressed on an {@link Executor}, but a chunk whose compression hasn't started by the
+ * time it's needed is compressed on the calling thread, so a saturated executor can't stall the
+ * stream.
+ *
+ * @param <T> the type of a compressed chunk
+ */
+abstract class ParallelCompressorOutputStream<T> extends OutputStream implements Abandonable {
+    private static final int MAX_PENDING = 16;
+    private final BCPGOutputStream packet;
+    private final int chunkSize;
+    private final Executor executor;
+    private final Deque<FutureTask<T>> pending = new ArrayDeque<>();
+    private byte[] chunk;
+    private int length;
+    private boolean closed;
+    private volatile boolean abandoned;
+
+    /**
+     * Starts a compressed data packet.
+     *
+     * @param output    the output stream to which the packet will be written
+     * @param algorithm the compression algorithm
+     * @param chunkSize the size of the chunks in which to compress the data
+     * @param executor  an executor on which to compress chunks
+     * @throws IOException if there is an error writing to {@code output}
+     */
+    ParallelCompressorOutputStream(OutputStream output,
+                                   CompressionAlgorithm algorithm,
+                                   int chunkSize,
+                                   Executor executor) throws IOException {
+        this.packet = new BCPGOutputStream(output, PacketTags.COMPRESSED_DATA);
+        this.chunkSize = chunkSize;
+        this.executor = executor;
+        this.chunk = new byte[chunkSize];
+        packet.write(algorithm.value());
+    }
+
+    /**
+     * Returns a task which compresses a chunk. This is called on the writing thread, once per
+     * chunk, in order, so implementations can keep track of state which spans chunks.
+     *
+     * @param chunk  the chunk, which is not modified afterwards
+     * @param length the length of the chunk
+     * @param last   whether or not this is the last chunk, which may be empty
+     * @return a task which compresses the chunk
+     */
+    protected abstract Callable<T> compress(byte[] chunk, int length, boolean last);
+
+    /**
+     * Writes a compressed chunk to the packet. This is called on the writing thread, once per
+     * chunk, in order.
+     */
+    protected abstract void writeChunk(T compressed, OutputStream packet) throws IOException;
+
+    /**
+     * Writes anything which follows the compressed chunks.
+     */
+    protected abstract void writeTrailer(OutputStream packet) throws IOException;
+
+    /**
+     * Returns the packet body, for writing anything which precedes the compressed chunks.
+     */
+    protected OutputStream getPacket() {
+        return packet;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+
+        while (len > 0) {
+            final int n = Math.min(len, chunkSize - length);
+            System.arraycopy(b, off, chunk, length, n);
+            length += n;
+            off += n;
+            len -= n;
+
+            if (length == chunkSize) {
+                dispatch(false);
+            }
+        }
+    }
+
+    /**
+     * Compresses any remaining data and finishes the compressed data packet. The underlying
+     * output stream is not closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        dispatch(true);
+        while (!pending.isEmpty()) {
+            writeNext();
+        }
+        writeTrailer(packet);
+        packet.finish();
+    }
+
+    /**
+     * Skips the compression of any chunks which haven't started, and waits for any which have, so
+     * that no chunk is still being compressed once the stream has been abandoned. The packet is not
+     * finished.
+     */
+    @Override
+    public void abandon() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        abandoned = true;
+
+        for (FutureTask<T> task : pending) {
+            task.run(); // does nothing if the executor has already run it
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ignored) {
+                // the chunk won't be written anyway
+            }
+        }
+        pending.clear();
+    }
+
+    private void dispatch(boolean last) throws IOException {
+        final Callable<T> compressor = compress(chunk, length, last);
+        final FutureTask<T> task = new FutureTask<>(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return abandoned ? null : compressor.call();
+            }
+        });
+        if (!last) {
+            this.chunk = new byte[chunkSize];
+        }
+        this.length = 0;
+
+        pending.add(task);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException ignored) {
+            // the task will be run when it's written
+        }
+
+        while (pending.size() > MAX_PENDING) {
+            writeNext();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        final FutureTask<T> task = pending.remove();
+        task.run(); // does nothing if the executor has already run it
+        try {
+            writeChunk(task.get(), packet);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
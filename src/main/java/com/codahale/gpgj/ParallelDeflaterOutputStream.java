@@ -0,0 +1,153 @@
+package com.codahale.gpgj;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+/**
+ * An output stream which writes a ZIP or ZLIB compressed data packet, compressing chunks of the
+ * data on several threads at once.
+ * <p/>
+ * As in pigz, each chunk is compressed independently, using the end of the previous chunk as a
+ * preset dictionary, and ended with a sync flush so that the compressed chunks can simply be
+ * concatenated. The result is a single standard DEFLATE stream, which any inflater can read. For
+ * ZLIB, the Adler-32 checksum of the whole stream is calculated as the chunks are written.
+ */
+class ParallelDeflaterOutputStream extends ParallelCompressorOutputStream<byte[]> {
+    static final int CHUNK_SIZE = 1 << 17; // 128KB
+    private static final int DICTIONARY_SIZE = 1 << 15; // 32KB, the DEFLATE window
+    private static final int BUFFER_SIZE = 1 << 14;
+    private final boolean zlib;
+    private final int level;
+    private final BufferPool pool;
+    private final Adler32 checksum = new Adler32();
+    private byte[] dictionary;
+
+    /**
+     * Returns whether or not the given compression algorithm can be compressed in parallel.
+     */
+    static boolean isSupported(CompressionAlgorithm algorithm) {
+        return algorithm == CompressionAlgorithm.ZIP || algorithm == CompressionAlgorithm.ZLIB;
+    }
+
+    /**
+     * Starts a compressed data packet.
+     *
+     * @param output    the output stream to which the packet will be written
+     * @param algorithm either {@link CompressionAlgorithm#ZIP} or {@link CompressionAlgorithm#ZLIB}
+     * @param level     the {@link Deflater} compression level
+     * @param executor  an executor on which to compress chunks
+     * @param pool      the pool from which to borrow deflaters
+     * @throws IOException if there is an error writing to {@code output}
+     */
+    ParallelDeflaterOutputStream(OutputStream output,
+                                 CompressionAlgorithm algorithm,
+                                 int level,
+                                 Executor executor,
+                                 BufferPool pool) throws IOException {
+        super(output, checkSupported(algorithm), CHUNK_SIZE, executor);
+        this.zlib = algorithm == CompressionAlgorithm.ZLIB;
+        this.level = level;
+        this.pool = pool;
+
+        if (zlib) {
+            getPacket().write(zlibHeader(level));
+        }
+    }
+
+    private static CompressionAlgorithm checkSupported(CompressionAlgorithm algorithm) {
+        if (!isSupported(algorithm)) {
+            throw new IllegalArgumentException(algorithm + " is not a DEFLATE algorithm");
+        }
+        return algorithm;
+    }
+
+    @Override
+    protected Callable<byte[]> compress(final byte[] chunk, final int length, final boolean last) {
+        final byte[] preset = dictionary;
+        checksum.update(chunk, 0, length);
+        if (!last) {
+            this.dictionary = Arrays.copyOfRange(chunk, length - DICTIONARY_SIZE, length);
+        }
+
+        return new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return deflate(chunk, length, preset, last, level, pool);
+            }
+        };
+    }
+
+    @Override
+    protected void writeChunk(byte[] compressed, OutputStream packet) throws IOException {
+        packet.write(compressed);
+    }
+
+    @Override
+    protected void writeTrailer(OutputStream packet) throws IOException {
+        if (zlib) {
+            final long adler = checksum.getValue();
+            packet.write(new byte[]{
+                    (byte) (adler >>> 24), (byte) (adler >>> 16), (byte) (adler >>> 8), (byte) adler
+            });
+        }
+    }
+
+    static byte[] deflate(byte[] input, int length, byte[] dictionary, boolean last, int level, BufferPool pool) {
+        final Deflater deflater = pool.acquireDeflater(level, true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(input, 0, length);
+
+            final ByteArrayOutputStream output = new ByteArrayOutputStream(length / 2 + 64);
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    output.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                // a sync flush ends on a byte boundary, so the next chunk can follow directly
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    output.write(buffer, 0, n);
+                } while (n == buffer.length);
+            }
+            return output.toByteArray();
+        } finally {
+            pool.release(deflater, level, true);
+        }
+    }
+
+    /*
+     * A 32KB window with DEFLATE, the level hint, and a check value (RFC 1950, section 2.2).
+     */
+    static byte[] zlibHeader(int level) {
+        final int compressionMethod = 0x78;
+        final int hint;
+        if (level == Deflater.DEFAULT_COMPRESSION || level == 6) {
+            hint = 2;
+        } else if (level < 2) {
+            hint = 0;
+        } else if (level < 6) {
+            hint = 1;
+        } else {
+            hint = 3;
+        }
+
+        int flags = hint << 6;
+        final int remainder = ((compressionMethod << 8) | flags) % 31;
+        if (remainder != 0) {
+            flags += 31 - remainder;
+        }
+        return new byte[]{(byte) compressionMethod, (byte) flags};
+    }
+}
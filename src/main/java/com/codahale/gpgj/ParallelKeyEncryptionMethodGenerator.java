@@ -0,0 +1,104 @@
+package com.codahale.gpgj;
+
+import org.bouncycastle.bcpg.ContainedPacket;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.operator.PGPKeyEncryptionMethodGenerator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A {@link PGPKeyEncryptionMethodGenerator} which encrypts the session key for all the methods in
+ * its batch in parallel.
+ * <p/>
+ * {@link org.bouncycastle.openpgp.PGPEncryptedDataGenerator} calls each of its methods in turn with
+ * the same session key. The first call to any method in a batch submits the session key encryptions
+ * for every method in the batch to an executor, and each method then returns its own packet once it
+ * is ready, so the packets are still written in the original order. A calling thread which finds
+ * its method's encryption has not yet started performs it itself, so a busy executor never stalls
+ * a message.
+ */
+class ParallelKeyEncryptionMethodGenerator extends PGPKeyEncryptionMethodGenerator {
+    private final Batch batch;
+    private final int index;
+
+    private ParallelKeyEncryptionMethodGenerator(Batch batch, int index) {
+        this.batch = batch;
+        this.index = index;
+    }
+
+    /**
+     * Returns a batch of methods which perform the given methods' encryptions in parallel.
+     *
+     * @param methods  the key encryption methods
+     * @param executor an executor on which to encrypt the session keys
+     * @return an equivalent list of methods
+     */
+    static List<PGPKeyEncryptionMethodGenerator> wrap(List<PGPKeyEncryptionMethodGenerator> methods,
+                                                      Executor executor) {
+        final Batch batch = new Batch(methods, executor);
+        final List<PGPKeyEncryptionMethodGenerator> wrapped = new ArrayList<>(methods.size());
+        for (int i = 0; i < methods.size(); i++) {
+            wrapped.add(new ParallelKeyEncryptionMethodGenerator(batch, i));
+        }
+        return wrapped;
+    }
+
+    @Override
+    public ContainedPacket generate(int encAlgorithm, byte[] sessionInfo) throws PGPException {
+        final FutureTask<ContainedPacket> task = batch.start(encAlgorithm, sessionInfo).get(index);
+        task.run(); // does nothing if the task has already been run
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PGPException("Interrupted while encrypting session key", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof PGPException) {
+                throw (PGPException) e.getCause();
+            }
+            throw new PGPException("Error encrypting session key", e);
+        }
+    }
+
+    private static class Batch {
+        private final List<PGPKeyEncryptionMethodGenerator> methods;
+        private final Executor executor;
+        private List<FutureTask<ContainedPacket>> tasks;
+
+        private Batch(List<PGPKeyEncryptionMethodGenerator> methods, Executor executor) {
+            this.methods = methods;
+            this.executor = executor;
+        }
+
+        private synchronized List<FutureTask<ContainedPacket>> start(final int encAlgorithm,
+                                                                     final byte[] sessionInfo) {
+            if (tasks == null) {
+                this.tasks = new ArrayList<>(methods.size());
+                for (final PGPKeyEncryptionMethodGenerator method : methods) {
+                    tasks.add(new FutureTask<>(new Callable<ContainedPacket>() {
+                        @Override
+                        public ContainedPacket call() throws Exception {
+                            return method.generate(encAlgorithm, sessionInfo);
+                        }
+                    }));
+                }
+
+                // the calling thread encrypts the first session key itself
+                for (FutureTask<ContainedPacket> task : tasks.subList(1, tasks.size())) {
+                    try {
+                        executor.execute(task);
+                    } catch (RejectedExecutionException e) {
+                        break; // the calling thread will run the rest
+                    }
+                }
+            }
+            return tasks;
+        }
+    }
+}
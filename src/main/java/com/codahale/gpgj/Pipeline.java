@@ -0,0 +1,562 @@
+package com.codahale.gpgj;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A set of processing stages which run concurrently and hand data to each other in reusable
+ * blocks, so that the steps of processing a message can each use a different core.
+ * <p/>
+ * Each {@link Stage} processes its blocks in order, one at a time, and holds at most a few of them
+ * in its queue. Stages are run on an {@link Executor}, but a thread which finds a stage's queue full
+ * processes the stage's blocks itself rather than waiting for the executor, so a pipeline never
+ * deadlocks, even if the executor is saturated or has a single thread. It just runs with less
+ * concurrency.
+ * <p/>
+ * A {@link StageInputStream} does the same for reading: it reads blocks ahead from its source on
+ * the executor, and a thread which finds no blocks ready reads the next one itself.
+ */
+class Pipeline {
+    /**
+     * The size of each block, in bytes.
+     */
+    static final int BLOCK_SIZE = 1 << 16;
+
+    private static final int QUEUE_CAPACITY = 8;
+    private final Executor executor;
+    private final BufferPool pool;
+
+    /**
+     * Creates a new pipeline which uses the shared {@link BufferPool}.
+     *
+     * @param executor the executor on which to run stages
+     */
+    Pipeline(Executor executor) {
+        this(executor, BufferPool.SHARED);
+    }
+
+    /**
+     * Creates a new pipeline.
+     *
+     * @param executor the executor on which to run stages
+     * @param pool     the pool from which to allocate blocks
+     */
+    Pipeline(Executor executor, BufferPool pool) {
+        this.executor = executor;
+        this.pool = pool;
+    }
+
+    /**
+     * Returns an empty block, with one reference.
+     */
+    Block allocate() {
+        return new Block(pool.acquire(BLOCK_SIZE));
+    }
+
+    private static void rethrow(Throwable e) throws IOException {
+        if (e instanceof IOException) {
+            throw (IOException) e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (e instanceof Error) {
+            throw (Error) e;
+        } else if (e != null) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * A block of data, which is returned to its pipeline's pool once every stage which holds a
+     * reference to it has released it.
+     */
+    class Block {
+        private final byte[] data;
+        private final AtomicInteger references = new AtomicInteger(1);
+        private int length;
+
+        private Block(byte[] data) {
+            this.data = data;
+        }
+
+        byte[] getData() {
+            return data;
+        }
+
+        int getLength() {
+            return length;
+        }
+
+        void setLength(int length) {
+            this.length = length;
+        }
+
+        /**
+         * Adds a reference to the block, so it can be handed to another stage.
+         */
+        Block retain() {
+            references.incrementAndGet();
+            return this;
+        }
+
+        /**
+         * Releases a reference to the block.
+         */
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                pool.release(data);
+            }
+        }
+    }
+
+    /**
+     * A step in a pipeline, which processes blocks in the order they were submitted.
+     */
+    abstract class Stage {
+        private final BlockingQueue<Block> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final ReentrantLock lock = new ReentrantLock();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final Runnable drainer = new Runnable() {
+            @Override
+            public void run() {
+                scheduled.set(false);
+                drain();
+            }
+        };
+        private volatile Throwable failure;
+
+        /**
+         * Processes a block. The block is released afterwards, so implementations must not keep
+         * it. Only one block is processed at a time.
+         */
+        protected abstract void process(Block block) throws IOException;
+
+        /**
+         * Hands a block to the stage, which takes over the caller's reference to it.
+         *
+         * @throws IOException if the stage has failed
+         */
+        void submit(Block block) throws IOException {
+            try {
+                checkFailure();
+                while (!queue.offer(block)) {
+                    // the queue is full, so either help or wait for whoever is draining it
+                    if (!drain()) {
+                        if (queue.offer(block, 1, TimeUnit.MILLISECONDS)) {
+                            break;
+                        }
+                        checkFailure();
+                    }
+                }
+            } catch (InterruptedException e) {
+                block.release();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for pipeline");
+            } catch (IOException | RuntimeException e) {
+                block.release();
+                throw e;
+            }
+            schedule();
+        }
+
+        /**
+         * Processes every submitted block on the calling thread, waiting for any other thread
+         * which is processing blocks, and reports any failure.
+         *
+         * @throws IOException if the stage has failed
+         */
+        void finish() throws IOException {
+            lock.lock();
+            try {
+                drainLocked();
+            } finally {
+                lock.unlock();
+            }
+            checkFailure();
+        }
+
+        /**
+         * Stops processing blocks, releasing any which are queued, and waits for any block which
+         * is being processed on another thread.
+         */
+        void cancel() {
+            if (failure == null) {
+                this.failure = new IOException("Pipeline stage was cancelled");
+            }
+
+            lock.lock();
+            try {
+                drainLocked();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void schedule() {
+            if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(drainer);
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                    drain();
+                }
+            }
+        }
+
+        /*
+         * Returns false if another thread is already draining the queue.
+         */
+        private boolean drain() {
+            if (!lock.tryLock()) {
+                return false;
+            }
+
+            try {
+                drainLocked();
+            } finally {
+                lock.unlock();
+            }
+
+            // a block may have been submitted after the queue was emptied but before the lock was
+            // released, in which case its drainer may have given up
+            schedule();
+            return true;
+        }
+
+        private void drainLocked() {
+            Block block;
+            while ((block = queue.poll()) != null) {
+                try {
+                    if (failure == null) {
+                        process(block);
+                    }
+                } catch (Throwable e) {
+                    this.failure = e;
+                } finally {
+                    block.release();
+                }
+            }
+        }
+
+        private void checkFailure() throws IOException {
+            rethrow(failure);
+        }
+    }
+
+    /**
+     * Returns a stage which writes each block to the given output stream.
+     */
+    Stage writingTo(final OutputStream output) {
+        return new Stage() {
+            @Override
+            protected void process(Block block) throws IOException {
+                output.write(block.getData(), 0, block.getLength());
+            }
+        };
+    }
+
+    /**
+     * Returns an output stream which writes to the given output stream on a stage of its own, and
+     * which closes it once the stage has finished, or abandons it if the stage is abandoned.
+     */
+    OutputStream openStage(final OutputStream output) {
+        return new StageOutputStream(writingTo(output)) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                output.close();
+            }
+
+            @Override
+            public void abandon() {
+                super.abandon();
+                if (output instanceof Abandonable) {
+                    ((Abandonable) output).abandon();
+                }
+            }
+        };
+    }
+
+    /**
+     * An output stream which collects the data written to it into blocks and submits each block to
+     * all of its stages.
+     */
+    class StageOutputStream extends OutputStream implements Abandonable {
+        private final Stage[] stages;
+        private Block block;
+
+        StageOutputStream(Stage... stages) {
+            this.stages = stages;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (block == null) {
+                    this.block = allocate();
+                }
+
+                final int n = Math.min(len, BLOCK_SIZE - block.getLength());
+                System.arraycopy(b, off, block.getData(), block.getLength(), n);
+                block.setLength(block.getLength() + n);
+                off += n;
+                len -= n;
+
+                if (block.getLength() == BLOCK_SIZE) {
+                    dispatch();
+                }
+            }
+        }
+
+        /**
+         * Submits any partially-filled block to the stages, and waits for each of them to finish.
+         */
+        @Override
+        public void close() throws IOException {
+            if (block != null && block.getLength() > 0) {
+                dispatch();
+            }
+            for (Stage stage : stages) {
+                stage.finish();
+            }
+        }
+
+        /**
+         * Discards any partially-filled block and cancels each of the stages.
+         */
+        @Override
+        public void abandon() {
+            if (block != null) {
+                block.release();
+                this.block = null;
+            }
+            for (Stage stage : stages) {
+                stage.cancel();
+            }
+        }
+
+        private void dispatch() throws IOException {
+            final Block full = block;
+            this.block = null;
+            for (int i = 1; i < stages.length; i++) {
+                full.retain();
+            }
+
+            for (int i = 0; i < stages.length; i++) {
+                try {
+                    stages[i].submit(full);
+                } catch (IOException | RuntimeException e) {
+                    // release the references the remaining stages would have taken over
+                    for (int j = i + 1; j < stages.length; j++) {
+                        full.release();
+                    }
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * An input stream which reads blocks ahead from another input stream on a stage of its own,
+     * handing each block to any other stages before returning it.
+     */
+    class StageInputStream extends InputStream {
+        private final InputStream input;
+        private final Stage[] stages;
+        private final BlockingQueue<Block> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final ReentrantLock lock = new ReentrantLock();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final Runnable reader = new Runnable() {
+            @Override
+            public void run() {
+                scheduled.set(false);
+                fill();
+            }
+        };
+        private volatile boolean done;
+        private volatile Throwable failure;
+        private Block block;
+        private int position;
+
+        StageInputStream(InputStream input, Stage... stages) {
+            this.input = input;
+            this.stages = stages;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!next()) {
+                return -1;
+            }
+            return block.getData()[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+
+            if (!next()) {
+                return -1;
+            }
+
+            final int n = Math.min(len, block.getLength() - position);
+            System.arraycopy(block.getData(), position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (block == null) ? 0 : block.getLength() - position;
+        }
+
+        /**
+         * Stops reading ahead and closes the source stream.
+         */
+        @Override
+        public void close() throws IOException {
+            this.done = true;
+            if (block != null) {
+                block.release();
+                this.block = null;
+            }
+
+            lock.lock();
+            try {
+                Block queued;
+                while ((queued = queue.poll()) != null) {
+                    queued.release();
+                }
+                input.close();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /*
+         * Makes sure there is unread data in the current block, returning false at the end of the
+         * stream.
+         */
+        private boolean next() throws IOException {
+            while (block == null || position == block.getLength()) {
+                if (block != null) {
+                    block.release();
+                    this.block = null;
+                }
+
+                final Block taken = take();
+                if (taken == null) {
+                    return false;
+                }
+                this.block = taken;
+                this.position = 0;
+            }
+            return true;
+        }
+
+        private Block take() throws IOException {
+            try {
+                while (true) {
+                    final boolean finished = done;
+                    Block taken = queue.poll();
+                    if (taken == null && finished) {
+                        checkFailure();
+                        return null;
+                    }
+
+                    // if nothing's ready, either read the next block ourselves or wait for whoever
+                    // is reading it
+                    if (taken == null && !fill()) {
+                        taken = queue.poll(1, TimeUnit.MILLISECONDS);
+                    }
+
+                    if (taken != null) {
+                        schedule();
+                        return taken;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for pipeline");
+            }
+        }
+
+        private void schedule() {
+            if (!done && queue.remainingCapacity() > 0 && scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(reader);
+                } catch (RejectedExecutionException e) {
+                    // the next read will fill the queue itself
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        /*
+         * Reads blocks until the queue is full or the source is exhausted. Returns false if
+         * another thread is already reading.
+         */
+        private boolean fill() {
+            if (!lock.tryLock()) {
+                return false;
+            }
+
+            try {
+                while (!done && queue.remainingCapacity() > 0) {
+                    readBlock();
+                }
+            } finally {
+                lock.unlock();
+            }
+            return true;
+        }
+
+        private void readBlock() {
+            final Block read = allocate();
+            try {
+                final byte[] data = read.getData();
+                int length = 0, r = 0;
+                while (length < BLOCK_SIZE && (r = input.read(data, length, BLOCK_SIZE - length)) >= 0) {
+                    length += r;
+                }
+                read.setLength(length);
+
+                if (length > 0) {
+                    for (Stage stage : stages) {
+                        stage.submit(read.retain());
+                    }
+                    queue.add(read.retain());
+                }
+
+                if (r < 0) {
+                    this.done = true;
+                }
+            } catch (Throwable e) {
+                this.failure = e;
+                this.done = true;
+            } finally {
+                read.release();
+            }
+        }
+
+        private void checkFailure() throws IOException {
+            rethrow(failure);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.codahale.gpgj;
+
+import org.bouncycastle.bcpg.BCPGOutputStream;
+import org.bouncycastle.bcpg.PacketTags;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * An output stream which writes a ZIP or ZLIB compressed data packet, as
+ * {@link org.bouncycastle.openpgp.PGPCompressedDataGenerator} does, but with a {@link Deflater}
+ * borrowed from a {@link BufferPool} and returned to it once the packet is finished.
+ */
+class PooledDeflaterOutputStream extends DeflaterOutputStream implements Abandonable {
+    private static final int BUFFER_SIZE = 1 << 13;
+    private final BCPGOutputStream packet;
+    private final BufferPool pool;
+    private final int level;
+    private final boolean nowrap;
+    private boolean closed;
+
+    /**
+     * Starts a compressed data packet.
+     *
+     * @param output    the output stream to which the packet will be written
+     * @param algorithm either {@link CompressionAlgorithm#ZIP} or {@link CompressionAlgorithm#ZLIB}
+     * @param level     the compression level
+     * @param pool      the pool from which to borrow a deflater
+     * @throws IOException if there is an error writing to {@code output}
+     */
+    static PooledDeflaterOutputStream open(OutputStream output,
+                                           CompressionAlgorithm algorithm,
+                                           int level,
+                                           BufferPool pool) throws IOException {
+        if (!ParallelDeflaterOutputStream.isSupported(algorithm)) {
+            throw new IllegalArgumentException(algorithm + " is not a DEFLATE algorithm");
+        }
+        final BCPGOutputStream packet = new BCPGOutputStream(output, PacketTags.COMPRESSED_DATA);
+        packet.write(algorithm.value());
+        return new PooledDeflaterOutputStream(packet, level, algorithm == CompressionAlgorithm.ZIP, pool);
+    }
+
+    private PooledDeflaterOutputStream(BCPGOutputStream packet, int level, boolean nowrap, BufferPool pool) {
+        super(packet, pool.acquireDeflater(level, nowrap), BUFFER_SIZE);
+        this.packet = packet;
+        this.pool = pool;
+        this.level = level;
+        this.nowrap = nowrap;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        super.write(b, off, len);
+    }
+
+    /**
+     * Finishes the compressed data packet and returns the deflater to the pool. The underlying
+     * output stream is not closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            finish();
+            packet.finish();
+        } finally {
+            pool.release(def, level, nowrap);
+        }
+    }
+
+    @Override
+    public void abandon() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        pool.release(def, level, nowrap);
+    }
+}
@@ -0,0 +1,91 @@
+package com.codahale.gpgj;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * An input stream which decompresses the body of a ZIP or ZLIB compressed data packet, as
+ * {@link org.bouncycastle.openpgp.PGPCompressedData#getDataStream()} does, but with an
+ * {@link Inflater} borrowed from a {@link BufferPool}. The inflater is returned to the pool as soon
+ * as the end of the compressed data is reached, or when the stream is closed.
+ */
+class PooledInflaterInputStream extends InflaterInputStream {
+    private static final int BUFFER_SIZE = 1 << 13;
+    private final BufferPool pool;
+    private final boolean nowrap;
+    private boolean eof;
+    private boolean released;
+
+    /**
+     * Creates a new stream.
+     *
+     * @param input     the body of the compressed data packet
+     * @param algorithm either {@link CompressionAlgorithm#ZIP} or {@link CompressionAlgorithm#ZLIB}
+     * @param pool      the pool from which to borrow an inflater
+     */
+    PooledInflaterInputStream(InputStream input, CompressionAlgorithm algorithm, BufferPool pool) {
+        this(input, algorithm == CompressionAlgorithm.ZIP, pool);
+    }
+
+    private PooledInflaterInputStream(InputStream input, boolean nowrap, BufferPool pool) {
+        super(input, pool.acquireInflater(nowrap), BUFFER_SIZE);
+        this.pool = pool;
+        this.nowrap = nowrap;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (released) {
+            return -1;
+        }
+
+        final int r = super.read(b, off, len);
+        if (r < 0) {
+            release();
+        }
+        return r;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return released ? 0 : super.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            release();
+        }
+    }
+
+    /*
+     * Raw DEFLATE data may need an extra dummy byte at the end of the input before the inflater
+     * will finish, so one is supplied at the end of the packet.
+     */
+    @Override
+    protected void fill() throws IOException {
+        if (eof) {
+            throw new EOFException("Unexpected end of ZIP input stream");
+        }
+
+        len = in.read(buf, 0, buf.length);
+        if (len == -1) {
+            buf[0] = 0;
+            len = 1;
+            eof = true;
+        }
+        inf.setInput(buf, 0, len);
+    }
+
+    private void release() {
+        if (!released) {
+            released = true;
+            pool.release(inf, nowrap);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.codahale.gpgj;
+
+import org.bouncycastle.crypto.params.AsymmetricKeyParameter;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.operator.PGPKeyEncryptionMethodGenerator;
+import org.bouncycastle.openpgp.operator.bc.BcPGPKeyConverter;
+import org.bouncycastle.openpgp.operator.bc.BcPublicKeyKeyEncryptionMethodGenerator;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable set of message recipients, suitable for writing many messages to the same
+ * recipients with a {@link MessageWriter}.
+ * <p/>
+ * Recipients are de-duplicated by their sub key IDs, their sub keys are checked for the ability to
+ * encrypt, and their public keys are converted for use, all once, when the set is created. Writing
+ * a message then only costs one public key encryption per recipient.
+ */
+public final class RecipientSet implements Iterable<KeySet> {
+    private final Map<Long, Recipient> recipients;
+
+    /**
+     * Creates a new {@link RecipientSet}.
+     *
+     * @param keySets the {@link KeySet}s belonging to the recipients
+     * @throws CryptographicException if any of the recipients' sub keys cannot encrypt data
+     */
+    public RecipientSet(Collection<KeySet> keySets) throws CryptographicException {
+        this(new LinkedHashMap<Long, Recipient>(keySets.size()));
+        for (KeySet keySet : keySets) {
+            if (!keySet.getSubKey().canEncrypt()) {
+                throw new CryptographicException(keySet.getSubKey() + " cannot encrypt data");
+            }
+
+            if (!recipients.containsKey(keySet.getSubKey().getKeyID())) {
+                recipients.put(keySet.getSubKey().getKeyID(), new Recipient(keySet));
+            }
+        }
+    }
+
+    private RecipientSet(Map<Long, Recipient> recipients) {
+        this.recipients = recipients;
+    }
+
+    /**
+     * Returns the number of recipients in the set.
+     */
+    public int size() {
+        return recipients.size();
+    }
+
+    /**
+     * Returns {@code true} if the set contains a recipient with the same sub key as the given
+     * {@link KeySet}.
+     *
+     * @param keySet a key set
+     */
+    public boolean contains(KeySet keySet) {
+        return recipients.containsKey(keySet.getSubKey().getKeyID());
+    }
+
+    @Override
+    public Iterator<KeySet> iterator() {
+        final Iterator<Recipient> iterator = recipients.values().iterator();
+        return new Iterator<KeySet>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public KeySet next() {
+                return iterator.next().keySet;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        final List<KeySet> keySets = new ArrayList<>(recipients.size());
+        for (KeySet keySet : this) {
+            keySets.add(keySet);
+        }
+        return keySets.toString();
+    }
+
+    /**
+     * Returns a copy of this set with the given {@link KeySet} as its last recipient.
+     */
+    RecipientSet withLast(KeySet keySet) {
+        final Map<Long, Recipient> copy = new LinkedHashMap<>(recipients);
+        final Recipient recipient = copy.remove(keySet.getSubKey().getKeyID());
+        copy.put(keySet.getSubKey().getKeyID(), recipient == null ? new Recipient(keySet) : recipient);
+        return new RecipientSet(Collections.unmodifiableMap(copy));
+    }
+
+    /**
+     * Returns the total size of the public-key encrypted session key packets for the recipients.
+     * The size is exact unless an encrypted session key happens to have leading zero bytes, in
+     * which case it's a little smaller.
+     */
+    int getSessionKeyPacketSize() {
+        int size = 0;
+        for (Recipient recipient : recipients.values()) {
+            size += recipient.sessionKeyPacketSize;
+        }
+        return size;
+    }
+
+    /**
+     * Returns a key encryption method for each recipient, in order.
+     */
+    List<PGPKeyEncryptionMethodGenerator> getMethods(SecureRandom random) {
+        final List<PGPKeyEncryptionMethodGenerator> methods = new ArrayList<>(recipients.size());
+        for (Recipient recipient : recipients.values()) {
+            methods.add(recipient.getMethod(random));
+        }
+        return methods;
+    }
+
+    private static class Recipient {
+        /*
+         * The largest curve defined for ECDH, for keys whose size isn't given.
+         */
+        private static final int MAX_EC_KEY_SIZE = 521;
+        /*
+         * A 256-bit session key, its algorithm and checksum, padded and wrapped with AES.
+         */
+        private static final int MAX_WRAPPED_KEY_SIZE = 48;
+        private final KeySet keySet;
+        private final PGPPublicKey publicKey;
+        private final AsymmetricKeyParameter key;
+        private final int sessionKeyPacketSize;
+
+        private Recipient(KeySet keySet) {
+            this.keySet = keySet;
+            this.publicKey = keySet.getSubKey().getPublicKey();
+            this.key = convert(publicKey);
+            this.sessionKeyPacketSize = sessionKeyPacketSize(keySet.getSubKey());
+        }
+
+        /*
+         * A version number, a key ID, an algorithm ID, and the encrypted session key, which is an
+         * MPI as large as the key for RSA, two for Elgamal, and for ECDH an ephemeral point and a
+         * wrapped key (RFC 4880, section 5.1, and RFC 6637, section 8), in an old format packet.
+         */
+        private static int sessionKeyPacketSize(SubKey subKey) {
+            final int keyBytes = (subKey.getSize() + 7) / 8;
+            final int encryptedKeySize;
+            switch (subKey.getAlgorithm()) {
+                case ELGAMAL:
+                case ELGAMAL_G:
+                    encryptedKeySize = 2 * (2 + keyBytes);
+                    break;
+                case ECDH:
+                    final int fieldBytes = (subKey.getSize() > 0 ? keyBytes : (MAX_EC_KEY_SIZE + 7) / 8);
+                    encryptedKeySize = (2 + 1 + 2 * fieldBytes) + 1 + MAX_WRAPPED_KEY_SIZE;
+                    break;
+                default:
+                    encryptedKeySize = 2 + keyBytes;
+                    break;
+            }
+
+            final int bodyLength = 1 + 8 + 1 + encryptedKeySize;
+            final int headerLength = (bodyLength < 0x100) ? 2 : (bodyLength < 0x10000) ? 3 : 5;
+            return headerLength + bodyLength;
+        }
+
+        private static AsymmetricKeyParameter convert(PGPPublicKey publicKey) {
+            if (CachedKeyEncryptionMethodGenerator.isSupported(publicKey.getAlgorithm())) {
+                try {
+                    return new BcPGPKeyConverter().getPublicKey(publicKey);
+                } catch (PGPException ignored) {
+                    // fall back to converting the key for each message, which will report the error
+                }
+            }
+            return null;
+        }
+
+        private PGPKeyEncryptionMethodGenerator getMethod(SecureRandom random) {
+            if (key == null) {
+                return new BcPublicKeyKeyEncryptionMethodGenerator(publicKey).setSecureRandom(random);
+            }
+            return new CachedKeyEncryptionMethodGenerator(publicKey, key, random);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.codahale.gpgj;
+
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.bcpg.S2K;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.operator.PBESecretKeyDecryptor;
+import org.bouncycastle.openpgp.operator.jcajce.JcePBESecretKeyDecryptorBuilder;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Utility methods for choosing the iteration count of the iterated-and-salted S2K function which
+ * protects secret keys. The iteration count is the number of bytes of salt and passphrase which
+ * are hashed to derive a key, and determines both how long it takes to unlock a key set and how
+ * expensive it is to brute-force its passphrase.
+ *
+ * @see <a href="http://www.ietf.org/rfc/rfc4880.txt">Section 3.7.1.3, RFC 4880</a>
+ */
+public final class S2KIterations {
+    /**
+     * The smallest iteration count which can be encoded.
+     */
+    public static final long MINIMUM = decode(0x00);
+
+    /**
+     * The largest iteration count which can be encoded.
+     */
+    public static final long MAXIMUM = decode(0xFF);
+
+    /**
+     * BouncyCastle's default iteration count.
+     */
+    public static final long DEFAULT = decode(0x60);
+
+    private static final int CALIBRATION_RUNS = 5;
+
+    private S2KIterations() { /* singleton */ }
+
+    /**
+     * Measures how long this host takes to derive a key and returns the iteration count which
+     * will make unlocking a {@link KeySet} take approximately {@code targetLatency}.
+     *
+     * @param targetLatency the desired time to unlock a key set
+     * @param unit          the unit of {@code targetLatency}
+     * @return an iteration count, between {@link #MINIMUM} and {@link #MAXIMUM}
+     * @throws CryptographicException if there was an error deriving keys
+     */
+    public static long calibrate(long targetLatency, TimeUnit unit) throws CryptographicException {
+        final long target = unit.toNanos(targetLatency);
+        final SecureRandom random = new SecureRandom();
+        try {
+            final PBESecretKeyDecryptor decryptor =
+                    new JcePBESecretKeyDecryptorBuilder().build("calibration".toCharArray());
+
+            // keep doubling the work until it's long enough to be measured with some accuracy,
+            // which also warms up the JIT
+            int encoded = 0x60;
+            long elapsed = measure(decryptor, encoded, random);
+            while (elapsed < target / 8 && encoded < 0xF0) {
+                encoded += 0x10;
+                elapsed = measure(decryptor, encoded, random);
+            }
+
+            final double iterations = (double) decode(encoded) * target / Math.max(elapsed, 1);
+            return decode(encode((long) Math.min(iterations, MAXIMUM)));
+        } catch (PGPException e) {
+            throw new CryptographicException(e);
+        }
+    }
+
+    /**
+     * Returns the encoded form of the smallest encodable iteration count which is at least
+     * {@code iterations}, or of {@link #MAXIMUM} if there is none.
+     */
+    static int encode(long iterations) {
+        for (int encoded = 0; encoded <= 0xFF; encoded++) {
+            if (decode(encoded) >= iterations) {
+                return encoded;
+            }
+        }
+        return 0xFF;
+    }
+
+    /**
+     * Returns the iteration count for its encoded form.
+     */
+    static long decode(int encoded) {
+        return (16L + (encoded & 15)) << ((encoded >> 4) + 6);
+    }
+
+    private static long measure(PBESecretKeyDecryptor decryptor,
+                                int encoded,
+                                SecureRandom random) throws PGPException {
+        long fastest = Long.MAX_VALUE;
+        for (int i = 0; i < CALIBRATION_RUNS; i++) {
+            final byte[] salt = new byte[8];
+            random.nextBytes(salt);
+            final S2K s2k = new S2K(HashAlgorithmTags.SHA1, salt, encoded);
+
+            final long start = System.nanoTime();
+            decryptor.makeKeyFromPassPhrase(SymmetricAlgorithm.DEFAULT.value(), s2k);
+            fastest = Math.min(fastest, System.nanoTime() - start);
+        }
+        return fastest;
+    }
+}
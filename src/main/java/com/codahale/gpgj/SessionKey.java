@@ -0,0 +1,157 @@
+package com.codahale.gpgj;
+
+import org.bouncycastle.util.encoders.Hex;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The symmetric key with which the body of a message is encrypted.
+ * <p/>
+ * A message's session key can decrypt that message, and only that message, without the
+ * recipient's private key. It can be recovered with {@link MessageReader#recoverSessionKey(byte[])}
+ * by a component which holds the private key, and handed to components which only need to read
+ * the message.
+ * <p/>
+ * <b>N.B.:</b> Anyone holding a session key can decrypt its message, so session keys should be
+ * handled with the same care as the messages themselves.
+ */
+public final class SessionKey {
+    private final SymmetricAlgorithm algorithm;
+    private final byte[] key;
+    private boolean destroyed;
+
+    /**
+     * Creates a new {@link SessionKey}.
+     *
+     * @param algorithm the symmetric algorithm with which the message is encrypted
+     * @param key       the key
+     */
+    public SessionKey(SymmetricAlgorithm algorithm, byte[] key) {
+        this.algorithm = algorithm;
+        this.key = key.clone();
+    }
+
+    /**
+     * Parses a session key in the {@code algorithm:key} format used by GnuPG's
+     * {@code --show-session-key} and {@code --override-session-key} options, where
+     * {@code algorithm} is the decimal value of the symmetric algorithm and {@code key} is the
+     * key in hexadecimal.
+     *
+     * @param encoded an encoded session key
+     * @return the session key
+     * @throws IllegalArgumentException if {@code encoded} is not a valid session key
+     * @see #encode()
+     */
+    public static SessionKey parse(String encoded) throws IllegalArgumentException {
+        final int separator = encoded.indexOf(':');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Invalid session key");
+        }
+
+        final SymmetricAlgorithm algorithm;
+        final byte[] key;
+        try {
+            algorithm = Flags.fromInt(SymmetricAlgorithm.class,
+                                      Integer.parseInt(encoded.substring(0, separator)));
+            key = Hex.decode(encoded.substring(separator + 1));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid session key", e);
+        }
+
+        try {
+            return new SessionKey(algorithm, key);
+        } finally {
+            Arrays.fill(key, (byte) 0);
+        }
+    }
+
+    /**
+     * Parses the session data of a public-key encrypted session key packet: the symmetric
+     * algorithm, the key, and a two-octet checksum of the key.
+     *
+     * @throws CryptographicException if the session data is invalid
+     */
+    static SessionKey fromSessionData(byte[] sessionData) throws CryptographicException {
+        if (sessionData.length < 4 || checksum(sessionData, 1, sessionData.length - 3) !=
+                (((sessionData[sessionData.length - 2] & 0xff) << 8) |
+                        (sessionData[sessionData.length - 1] & 0xff))) {
+            throw new CryptographicException("Invalid session key checksum");
+        }
+
+        final byte[] key = Arrays.copyOfRange(sessionData, 1, sessionData.length - 2);
+        try {
+            return new SessionKey(Flags.fromInt(SymmetricAlgorithm.class, sessionData[0] & 0xff), key);
+        } catch (IllegalArgumentException e) {
+            throw new CryptographicException(e);
+        } finally {
+            Arrays.fill(key, (byte) 0);
+        }
+    }
+
+    /**
+     * Returns the symmetric algorithm with which the message is encrypted.
+     */
+    public SymmetricAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Returns a copy of the key.
+     */
+    public synchronized byte[] getKey() {
+        return key.clone();
+    }
+
+    /**
+     * Returns the session key in the format used by GnuPG.
+     *
+     * @see #parse(String)
+     */
+    public synchronized String encode() {
+        return algorithm.value() + ":" + Hex.toHexString(key).toUpperCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Overwrites the key with zeros.
+     */
+    public synchronized void destroy() {
+        Arrays.fill(key, (byte) 0);
+        this.destroyed = true;
+    }
+
+    /**
+     * Returns {@code true} if the key has been overwritten with zeros.
+     */
+    synchronized boolean isDestroyed() {
+        return destroyed;
+    }
+
+    /**
+     * Returns the session data for a public-key encrypted session key packet. The caller should
+     * overwrite it once it has been used.
+     */
+    synchronized byte[] toSessionData() {
+        final byte[] sessionData = new byte[key.length + 3];
+        sessionData[0] = (byte) algorithm.value();
+        System.arraycopy(key, 0, sessionData, 1, key.length);
+        final int checksum = checksum(key, 0, key.length);
+        sessionData[sessionData.length - 2] = (byte) (checksum >> 8);
+        sessionData[sessionData.length - 1] = (byte) checksum;
+        return sessionData;
+    }
+
+    @Override
+    public String toString() {
+        // never include the key itself
+        return "SessionKey[" + algorithm + "]";
+    }
+
+    private static int checksum(byte[] b, int off, int len) {
+        int checksum = 0;
+        for (int i = off; i < off + len; i++) {
+            checksum += b[i] & 0xff;
+        }
+        return checksum & 0xffff;
+    }
+}
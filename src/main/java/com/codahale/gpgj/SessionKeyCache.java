@@ -0,0 +1,193 @@
+package com.codahale.gpgj;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.operator.PGPDataDecryptor;
+import org.bouncycastle.openpgp.operator.PublicKeyDataDecryptorFactory;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process cache of recovered {@link SessionKey}s, which allows {@link MessageReader}s to
+ * skip the private-key operation when they read the same message again.
+ * <p/>
+ * Entries are keyed by a SHA-256 hash of the recipient's sub key ID and the contents of their
+ * public-key encrypted session key packet, so a cached session key is only used for the packet it
+ * was recovered from. Session keys are overwritten with zeros when they leave the cache.
+ * <p/>
+ * Entries expire after a period of inactivity or after an absolute lifetime, whichever comes
+ * first, and the least-recently used entries are evicted once the cache is full.
+ *
+ * @see MessageReader#MessageReader(KeySet, UnlockedKeySet, SessionKeyCache)
+ */
+public class SessionKeyCache {
+    private final ExpiringCache<CacheKey, SessionKey> cache;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a new {@link SessionKeyCache}.
+     *
+     * @param maxEntries      the maximum number of session keys to hold
+     * @param idleTimeout     the time after which an unused entry expires
+     * @param absoluteTimeout the time after which an entry expires, regardless of use
+     * @param unit            the unit of {@code idleTimeout} and {@code absoluteTimeout}
+     */
+    public SessionKeyCache(int maxEntries, long idleTimeout, long absoluteTimeout, TimeUnit unit) {
+        this(maxEntries, idleTimeout, absoluteTimeout, unit, Clock.SYSTEM);
+    }
+
+    SessionKeyCache(int maxEntries,
+                    long idleTimeout,
+                    long absoluteTimeout,
+                    TimeUnit unit,
+                    Clock clock) {
+        this.cache = new ExpiringCache<>(maxEntries,
+                                         unit.toNanos(idleTimeout),
+                                         unit.toNanos(absoluteTimeout),
+                                         clock,
+                                         new ExpiringCache.EvictionListener<SessionKey>() {
+                                             @Override
+                                             public void onEviction(SessionKey value) {
+                                                 value.destroy();
+                                             }
+                                         });
+    }
+
+    /**
+     * Returns the number of times a session key was found in the cache.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of times a session key was not found in the cache, and had to be
+     * recovered with a private key.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Removes all cached entries.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Returns the number of cached entries.
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Returns a decryptor factory which recovers session keys from the cache, falling back to the
+     * given factory.
+     *
+     * @param factory  a decryptor factory for the recipient's private key
+     * @param subKeyID the recipient's sub key ID
+     */
+    PublicKeyDataDecryptorFactory wrap(PublicKeyDataDecryptorFactory factory, long subKeyID) {
+        return new CachingDecryptorFactory(factory, subKeyID);
+    }
+
+    private byte[] get(CacheKey key) {
+        final SessionKey sessionKey = cache.get(key);
+        if (sessionKey != null) {
+            // the session key may be evicted, and destroyed, at any moment
+            synchronized (sessionKey) {
+                if (!sessionKey.isDestroyed()) {
+                    hits.incrementAndGet();
+                    return sessionKey.toSessionData();
+                }
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    private static CacheKey getKey(long subKeyID, int keyAlgorithm, BigInteger[] secKeyData) {
+        final SHA256Digest digest = new SHA256Digest();
+        update(digest, subKeyID);
+        update(digest, keyAlgorithm);
+        for (BigInteger mpi : secKeyData) {
+            final byte[] b = mpi.toByteArray();
+            update(digest, b.length);
+            digest.update(b, 0, b.length);
+        }
+
+        final byte[] hash = new byte[digest.getDigestSize()];
+        digest.doFinal(hash, 0);
+        return new CacheKey(hash);
+    }
+
+    private static void update(SHA256Digest digest, long n) {
+        for (int i = 56; i >= 0; i -= 8) {
+            digest.update((byte) (n >>> i));
+        }
+    }
+
+    private class CachingDecryptorFactory implements PublicKeyDataDecryptorFactory {
+        private final PublicKeyDataDecryptorFactory factory;
+        private final long subKeyID;
+
+        private CachingDecryptorFactory(PublicKeyDataDecryptorFactory factory, long subKeyID) {
+            this.factory = factory;
+            this.subKeyID = subKeyID;
+        }
+
+        @Override
+        public byte[] recoverSessionData(int keyAlgorithm, BigInteger[] secKeyData) throws PGPException {
+            final CacheKey key = getKey(subKeyID, keyAlgorithm, secKeyData);
+            final byte[] cached = get(key);
+            if (cached != null) {
+                return cached;
+            }
+
+            final byte[] sessionData = factory.recoverSessionData(keyAlgorithm, secKeyData);
+            try {
+                cache.put(key, SessionKey.fromSessionData(sessionData));
+            } catch (CryptographicException ignored) {
+                // don't cache invalid session data, and let the caller report it
+            }
+            return sessionData;
+        }
+
+        @Override
+        public PGPDataDecryptor createDataDecryptor(boolean withIntegrityPacket,
+                                                    int encAlgorithm,
+                                                    byte[] key) throws PGPException {
+            return factory.createDataDecryptor(withIntegrityPacket, encAlgorithm, key);
+        }
+    }
+
+    private static class CacheKey {
+        private final byte[] hash;
+
+        private CacheKey(byte[] hash) {
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            return Arrays.equals(hash, ((CacheKey) o).hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(hash);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.codahale.gpgj;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.operator.PGPDataDecryptor;
+import org.bouncycastle.openpgp.operator.PublicKeyDataDecryptorFactory;
+import org.bouncycastle.openpgp.operator.bc.BcPublicKeyDataDecryptorFactory;
+
+import java.math.BigInteger;
+
+/**
+ * A {@link PublicKeyDataDecryptorFactory} which decrypts a message with a known
+ * {@link SessionKey}, rather than recovering it from a public-key encrypted session key packet
+ * with a private key.
+ */
+class SessionKeyDecryptorFactory implements PublicKeyDataDecryptorFactory {
+    // creating data decryptors doesn't involve the private key
+    private final PublicKeyDataDecryptorFactory factory = new BcPublicKeyDataDecryptorFactory(null);
+    private final SessionKey sessionKey;
+
+    SessionKeyDecryptorFactory(SessionKey sessionKey) {
+        this.sessionKey = sessionKey;
+    }
+
+    @Override
+    public byte[] recoverSessionData(int keyAlgorithm, BigInteger[] secKeyData) throws PGPException {
+        return sessionKey.toSessionData();
+    }
+
+    @Override
+    public PGPDataDecryptor createDataDecryptor(boolean withIntegrityPacket,
+                                                int encAlgorithm,
+                                                byte[] key) throws PGPException {
+        return factory.createDataDecryptor(withIntegrityPacket, encAlgorithm, key);
+    }
+}
@@ -0,0 +1,126 @@
+package com.codahale.gpgj;
+
+import org.bouncycastle.bcpg.S2K;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.operator.PBESecretKeyDecryptor;
+import org.bouncycastle.openpgp.operator.PGPDigestCalculator;
+import org.bouncycastle.openpgp.operator.jcajce.JcePBESecretKeyDecryptorBuilder;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A {@link PBESecretKeyDecryptor} which derives the key for each distinct set of S2K parameters
+ * only once, so that secret keys which share a passphrase and S2K parameters (e.g., the master
+ * key and sub key of a {@link KeySet} generated by {@link KeySetGenerator}) only pay for one
+ * iterated-and-salted derivation between them.
+ * <p/>
+ * Safe for concurrent use: threads deriving a key with the same parameters wait on a single
+ * derivation, while derivations with different parameters run in parallel.
+ */
+class SharedSecretKeyDecryptor extends PBESecretKeyDecryptor {
+    private final PBESecretKeyDecryptor decryptor;
+    private final ConcurrentMap<Parameters, FutureTask<byte[]>> keys;
+
+    SharedSecretKeyDecryptor(char[] passphrase) throws PGPException {
+        this(new JcePBESecretKeyDecryptorBuilder().build(passphrase));
+    }
+
+    private SharedSecretKeyDecryptor(PBESecretKeyDecryptor decryptor) {
+        super(null, null); // all operations are delegated
+        this.decryptor = decryptor;
+        this.keys = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public PGPDigestCalculator getChecksumCalculator(int hashAlgorithm) throws PGPException {
+        return decryptor.getChecksumCalculator(hashAlgorithm);
+    }
+
+    @Override
+    public byte[] makeKeyFromPassPhrase(final int keyAlgorithm, final S2K s2k) throws PGPException {
+        final Parameters parameters = new Parameters(keyAlgorithm, s2k);
+        FutureTask<byte[]> task = keys.get(parameters);
+        if (task == null) {
+            final FutureTask<byte[]> newTask = new FutureTask<>(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    return decryptor.makeKeyFromPassPhrase(keyAlgorithm, s2k);
+                }
+            });
+            task = keys.putIfAbsent(parameters, newTask);
+            if (task == null) {
+                task = newTask;
+                task.run();
+            }
+        }
+
+        try {
+            return task.get().clone();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PGPException("Interrupted while deriving key", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof PGPException) {
+                throw (PGPException) e.getCause();
+            }
+            throw new PGPException("Error deriving key", e);
+        }
+    }
+
+    @Override
+    public byte[] recoverKeyData(int encAlgorithm,
+                                 byte[] key,
+                                 byte[] iv,
+                                 byte[] keyData,
+                                 int keyOff,
+                                 int keyLen) throws PGPException {
+        return decryptor.recoverKeyData(encAlgorithm, key, iv, keyData, keyOff, keyLen);
+    }
+
+    private static class Parameters {
+        private final int keyAlgorithm;
+        private final int type;
+        private final int hashAlgorithm;
+        private final byte[] iv;
+        private final long iterationCount;
+
+        private Parameters(int keyAlgorithm, S2K s2k) {
+            this.keyAlgorithm = keyAlgorithm;
+            this.type = s2k.getType();
+            this.hashAlgorithm = s2k.getHashAlgorithm();
+            this.iv = s2k.getIV();
+            this.iterationCount = s2k.getIterationCount();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Parameters)) {
+                return false;
+            }
+            final Parameters that = (Parameters) o;
+            return keyAlgorithm == that.keyAlgorithm &&
+                    type == that.type &&
+                    hashAlgorithm == that.hashAlgorithm &&
+                    iterationCount == that.iterationCount &&
+                    Arrays.equals(iv, that.iv);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = keyAlgorithm;
+            result = 31 * result + type;
+            result = 31 * result + hashAlgorithm;
+            result = 31 * result + Arrays.hashCode(iv);
+            result = 31 * result + (int) (iterationCount ^ (iterationCount >>> 32));
+            return result;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.codahale.gpgj;
+
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.operator.PBESecretKeyEncryptor;
+import org.bouncycastle.openpgp.operator.PGPDigestCalculator;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPDigestCalculatorProviderBuilder;
+import org.bouncycastle.openpgp.operator.jcajce.JcePBESecretKeyEncryptorBuilder;
+
+import java.security.SecureRandom;
+
+/**
+ * A {@link PBESecretKeyEncryptor} which derives its key only once, no matter how many secret keys
+ * it encrypts. Every key it encrypts shares the same S2K parameters, and so can be unlocked with a
+ * single derivation by {@link SharedSecretKeyDecryptor}.
+ * <p/>
+ * <b>Not</b> safe for concurrent use.
+ */
+class SharedSecretKeyEncryptor extends PBESecretKeyEncryptor {
+    private final PBESecretKeyEncryptor encryptor;
+    private byte[] key;
+
+    private SharedSecretKeyEncryptor(int encAlgorithm,
+                                     PGPDigestCalculator s2kDigestCalculator,
+                                     int s2kCount,
+                                     SecureRandom random,
+                                     char[] passphrase,
+                                     PBESecretKeyEncryptor encryptor) {
+        super(encAlgorithm, s2kDigestCalculator, s2kCount, random, passphrase);
+        this.encryptor = encryptor;
+    }
+
+    /**
+     * Creates a new {@link SharedSecretKeyEncryptor}.
+     *
+     * @param encAlgorithm the symmetric algorithm with which to encrypt secret keys
+     * @param s2kCount     the encoded S2K iteration count
+     * @param random       a secure random number generator
+     * @param passphrase   the passphrase
+     */
+    static SharedSecretKeyEncryptor build(SymmetricAlgorithm encAlgorithm,
+                                          int s2kCount,
+                                          SecureRandom random,
+                                          char[] passphrase) throws PGPException {
+        final PGPDigestCalculator calculator =
+                new JcaPGPDigestCalculatorProviderBuilder().build().get(HashAlgorithmTags.SHA1);
+        final PBESecretKeyEncryptor encryptor =
+                new JcePBESecretKeyEncryptorBuilder(encAlgorithm.value(), calculator, s2kCount)
+                        .setSecureRandom(random)
+                        .build(passphrase);
+        return new SharedSecretKeyEncryptor(encAlgorithm.value(), calculator, s2kCount, random,
+                                            passphrase, encryptor);
+    }
+
+    @Override
+    public byte[] getKey() throws PGPException {
+        if (key == null) {
+            this.key = super.getKey();
+        }
+        return key.clone();
+    }
+
+    @Override
+    public byte[] encryptKeyData(byte[] key, byte[] keyData, int keyOff, int keyLen) throws PGPException {
+        return encryptor.encryptKeyData(key, keyData, keyOff, keyLen);
+    }
+
+    @Override
+    public byte[] getCipherIV() {
+        return encryptor.getCipherIV();
+    }
+}
@@ -0,0 +1,32 @@
+package com.codahale.gpgj;
+
+/**
+ * A signed and compressed message body, ready to be encrypted by a {@link MessageWriter}.
+ * <p/>
+ * Signing and compressing a body is usually the bulk of the cost of writing a message, so a body
+ * which is sent to several independent sets of recipients can be signed and compressed once with
+ * {@link MessageWriter#sign(byte[])}, and then encrypted to each set of recipients with
+ * {@link MessageWriter#write(SignedPayload)}.
+ */
+public final class SignedPayload {
+    private final byte[] encoded;
+
+    SignedPayload(byte[] encoded) {
+        this.encoded = encoded;
+    }
+
+    /**
+     * Returns the size of the signed and compressed body, in bytes.
+     */
+    public int size() {
+        return encoded.length;
+    }
+
+    /**
+     * Returns the compressed data packet containing the one-pass signature, literal data, and
+     * signature packets. <b>Must not</b> be modified.
+     */
+    byte[] getEncoded() {
+        return encoded;
+    }
+}
@@ -0,0 +1,155 @@
+package com.codahale.gpgj;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Estimates how large message bodies will be once compressed, from the sizes of the bodies already
+ * compressed with the same algorithm and level, so that buffers for messages can be allocated at
+ * about the right size.
+ * <p/>
+ * For each compression algorithm and level, the ratio of compressed to uncompressed size is
+ * recorded in an exponentially weighted histogram, so that recent messages count for more than
+ * older ones. The estimated ratio is taken from a high percentile of the histogram rather than its
+ * mean, so that few messages outgrow the buffers allocated for them.
+ */
+class SizeEstimator {
+    /**
+     * The estimator shared by all writers.
+     */
+    static final SizeEstimator SHARED = new SizeEstimator();
+
+    /**
+     * The ratio used until enough bodies have been compressed to estimate it.
+     */
+    static final double DEFAULT_RATIO = 1.2;
+
+    private static final int MIN_SAMPLES = 16;
+    private static final double DECAY = 0.98;
+    private static final double PERCENTILE = 0.9;
+    private static final int BUCKETS_PER_UNIT = 32;
+    private static final int BUCKETS = BUCKETS_PER_UNIT * 3 / 2; // ratios from 0 to 1.5
+    private static final double MAX_WEIGHT = 1e100;
+    private static final int MIN_LEVEL = MessageWriter.ADAPTIVE_COMPRESSION;
+    private static final int LEVELS = Deflater.BEST_COMPRESSION - MIN_LEVEL + 1;
+    private static final int ZLIB_DEFAULT_LEVEL = 6;
+    private final Map<CompressionAlgorithm, Histogram[]> histograms;
+
+    SizeEstimator() {
+        final Map<CompressionAlgorithm, Histogram[]> map = new EnumMap<>(CompressionAlgorithm.class);
+        for (CompressionAlgorithm algorithm : CompressionAlgorithm.values()) {
+            final Histogram[] levels = new Histogram[LEVELS];
+            for (int i = 0; i < levels.length; i++) {
+                levels[i] = new Histogram();
+            }
+            map.put(algorithm, levels);
+        }
+        this.histograms = Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Records the size of a compressed body.
+     *
+     * @param algorithm        the algorithm with which the body was compressed
+     * @param level            the writer's compression level
+     * @param uncompressedSize the size of the body before compression
+     * @param compressedSize   the size of the body after compression
+     */
+    void record(CompressionAlgorithm algorithm, int level, long uncompressedSize, long compressedSize) {
+        if (uncompressedSize > 0) {
+            getHistogram(algorithm, level).record(Math.max(0, compressedSize) / (double) uncompressedSize);
+        }
+    }
+
+    /**
+     * Returns the estimated ratio of compressed to uncompressed size for the given algorithm and
+     * level.
+     */
+    double getRatio(CompressionAlgorithm algorithm, int level) {
+        return getHistogram(algorithm, level).getRatio();
+    }
+
+    /**
+     * Returns the number of bodies recorded for the given algorithm and level.
+     */
+    long getSamples(CompressionAlgorithm algorithm, int level) {
+        return getHistogram(algorithm, level).getSamples();
+    }
+
+    /**
+     * Returns the estimated size of a body once compressed with the given algorithm and level.
+     */
+    int estimate(CompressionAlgorithm algorithm, int level, int uncompressedSize) {
+        return (int) Math.min(Integer.MAX_VALUE,
+                              (long) Math.ceil(uncompressedSize * getRatio(algorithm, level)));
+    }
+
+    /*
+     * Levels compress to very different sizes, so each is learned separately, as are adaptive
+     * writers. The default level is zlib's level 6, and Bouncy Castle ignores the level for BZIP2,
+     * so those are learned together.
+     */
+    private Histogram getHistogram(CompressionAlgorithm algorithm, int level) {
+        if (level < MIN_LEVEL || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+
+        int effective = level;
+        if (level != MessageWriter.ADAPTIVE_COMPRESSION) {
+            if (algorithm == CompressionAlgorithm.BZIP2 || level == MessageWriter.DEFAULT_COMPRESSION) {
+                effective = ZLIB_DEFAULT_LEVEL;
+            }
+        }
+        return histograms.get(algorithm)[effective - MIN_LEVEL];
+    }
+
+    /*
+     * Rather than decaying every bucket each time a sample is recorded, each sample is given a
+     * weight 1/DECAY times that of the one before it, which gives the same relative weights. The
+     * weights are scaled back down once they grow large, so they never overflow.
+     */
+    private static class Histogram {
+        private final double[] weights = new double[BUCKETS];
+        private double total;
+        private double weight = 1;
+        private long samples;
+
+        synchronized void record(double ratio) {
+            final int bucket = (int) Math.min(BUCKETS - 1, ratio * BUCKETS_PER_UNIT);
+            weights[bucket] += weight;
+            total += weight;
+            samples++;
+
+            weight /= DECAY;
+            if (weight > MAX_WEIGHT) {
+                for (int i = 0; i < weights.length; i++) {
+                    weights[i] /= weight;
+                }
+                total /= weight;
+                weight = 1;
+            }
+        }
+
+        synchronized double getRatio() {
+            if (samples < MIN_SAMPLES) {
+                return DEFAULT_RATIO;
+            }
+
+            // the upper bound of the bucket holding the percentile
+            double cumulative = 0;
+            for (int i = 0; i < weights.length; i++) {
+                cumulative += weights[i];
+                if (cumulative >= total * PERCENTILE) {
+                    return (i + 1) / (double) BUCKETS_PER_UNIT;
+                }
+            }
+            return BUCKETS / (double) BUCKETS_PER_UNIT;
+        }
+
+        synchronized long getSamples() {
+            return samples;
+        }
+    }
+}
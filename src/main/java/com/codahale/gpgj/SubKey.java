@@ -55,8 +55,14 @@ public class SubKey extends AbstractKey implements Locked<UnlockedSubKey> {
     @Override
     public UnlockedSubKey unlock(char[] passphrase) throws CryptographicException {
         try {
-            final PBESecretKeyDecryptor decryptor =
-                    new JcePBESecretKeyDecryptorBuilder().build(passphrase);
+            return unlock(new JcePBESecretKeyDecryptorBuilder().build(passphrase));
+        } catch (PGPException e) {
+            throw new CryptographicException("Incorrect passphrase");
+        }
+    }
+
+    UnlockedSubKey unlock(PBESecretKeyDecryptor decryptor) throws CryptographicException {
+        try {
             final PGPPrivateKey privateKey = secretKey.extractPrivateKey(decryptor);
             return new UnlockedSubKey(secretKey, masterKey, privateKey);
         } catch (PGPException e) {
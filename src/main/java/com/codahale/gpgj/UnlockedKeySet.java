@@ -4,10 +4,9 @@ import org.bouncycastle.openpgp.PGPException;
 import org.bouncycastle.openpgp.PGPSecretKey;
 import org.bouncycastle.openpgp.operator.PBESecretKeyDecryptor;
 import org.bouncycastle.openpgp.operator.PBESecretKeyEncryptor;
-import org.bouncycastle.openpgp.operator.jcajce.JcePBESecretKeyDecryptorBuilder;
-import org.bouncycastle.openpgp.operator.jcajce.JcePBESecretKeyEncryptorBuilder;
 
 import java.security.SecureRandom;
+import java.util.concurrent.Executor;
 
 /**
  * An unlocked {@link KeySet}.
@@ -36,9 +35,14 @@ public class UnlockedKeySet extends KeySet {
         return this;
     }
 
+    @Override
+    public UnlockedKeySet unlock(char[] passphrase, Executor executor) throws CryptographicException {
+        return this;
+    }
+
     /**
      * Re-encrypts the key set with a new passphrase and returns it in locked
-     * form.
+     * form, keeping its current S2K iteration count.
      *
      * @param oldPassphrase the old passphrase
      * @param newPassphrase the new passphrase
@@ -46,14 +50,40 @@ public class UnlockedKeySet extends KeySet {
      * @throws CryptographicException if {@code oldPassphrase} is incorrect
      */
     public KeySet relock(char[] oldPassphrase, char[] newPassphrase, SecureRandom random) throws CryptographicException {
+        long s2kIterationCount = getMasterKey().getS2KIterationCount();
+        if (s2kIterationCount == 0) {
+            s2kIterationCount = S2KIterations.DEFAULT;
+        }
+        return relock(oldPassphrase, newPassphrase, random, s2kIterationCount);
+    }
+
+    /**
+     * Re-encrypts the key set with a new passphrase and a new S2K iteration count and returns it
+     * in locked form.
+     * <p/>
+     * Both keys are re-encrypted with the same S2K parameters, so the new passphrase is only
+     * derived once here, and only once when the returned key set is unlocked.
+     *
+     * @param oldPassphrase     the old passphrase
+     * @param newPassphrase     the new passphrase
+     * @param s2kIterationCount the number of bytes to hash when deriving the key from {@code
+     *                          newPassphrase}
+     * @return {@code this}, re-encrypted with {@code newPassphrase}
+     * @throws CryptographicException if {@code oldPassphrase} is incorrect
+     * @see S2KIterations
+     */
+    public KeySet relock(char[] oldPassphrase,
+                         char[] newPassphrase,
+                         SecureRandom random,
+                         long s2kIterationCount) throws CryptographicException {
         try {
             final PBESecretKeyDecryptor decryptor =
-                    new JcePBESecretKeyDecryptorBuilder()
-                            .build(oldPassphrase);
+                    new SharedSecretKeyDecryptor(oldPassphrase);
             final PBESecretKeyEncryptor encryptor =
-                    new JcePBESecretKeyEncryptorBuilder(SymmetricAlgorithm.DEFAULT.value())
-                            .setSecureRandom(random)
-                            .build(newPassphrase);
+                    SharedSecretKeyEncryptor.build(SymmetricAlgorithm.DEFAULT,
+                                                   S2KIterations.encode(s2kIterationCount),
+                                                   random,
+                                                   newPassphrase);
             final PGPSecretKey masterSecretKey = PGPSecretKey.copyWithNewPassword(
                     getUnlockedMasterKey().getSecretKey(),
                     decryptor,
@@ -0,0 +1,163 @@
+package com.codahale.gpgj;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.macs.HMac;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An in-process cache of {@link UnlockedKeySet}s, which allows repeated unlocks of the same key
+ * set to skip the costly passphrase derivation.
+ * <p/>
+ * Entries are keyed by the key set's master key ID and a passphrase verifier: an HMAC, under a
+ * random per-cache secret, of the encrypted key set and the passphrase. Passphrases are never
+ * stored, a wrong passphrase never matches a cached entry, and relocking a key set with a new
+ * passphrase leaves the old passphrase unable to unlock the new key set.
+ * <p/>
+ * Entries expire after a period of inactivity or after an absolute lifetime, whichever comes
+ * first, and the least-recently used entries are evicted once the cache is full.
+ */
+public class UnlockedKeySetCache {
+    private final byte[] secret;
+    private final ExpiringCache<CacheKey, UnlockedKeySet> cache;
+
+    /**
+     * Creates a new {@link UnlockedKeySetCache}.
+     *
+     * @param maxEntries      the maximum number of unlocked key sets to hold
+     * @param idleTimeout     the time after which an unused entry expires
+     * @param absoluteTimeout the time after which an entry expires, regardless of use
+     * @param unit            the unit of {@code idleTimeout} and {@code absoluteTimeout}
+     */
+    public UnlockedKeySetCache(int maxEntries, long idleTimeout, long absoluteTimeout, TimeUnit unit) {
+        this(maxEntries, idleTimeout, absoluteTimeout, unit, Clock.SYSTEM, new SecureRandom());
+    }
+
+    UnlockedKeySetCache(int maxEntries,
+                        long idleTimeout,
+                        long absoluteTimeout,
+                        TimeUnit unit,
+                        Clock clock,
+                        SecureRandom random) {
+        this.secret = new byte[32];
+        random.nextBytes(secret);
+        this.cache = new ExpiringCache<>(maxEntries,
+                                         unit.toNanos(idleTimeout),
+                                         unit.toNanos(absoluteTimeout),
+                                         clock,
+                                         new ExpiringCache.EvictionListener<UnlockedKeySet>() {
+                                             @Override
+                                             public void onEviction(UnlockedKeySet value) {
+                                                 // BouncyCastle holds private keys as immutable
+                                                 // BigIntegers, which cannot be zeroed; dropping
+                                                 // the last reference is all that can be done.
+                                             }
+                                         });
+    }
+
+    /**
+     * Unlocks the given key set, returning a cached {@link UnlockedKeySet} if the same key set has
+     * recently been unlocked with the same passphrase.
+     *
+     * @param keySet     the key set to unlock
+     * @param passphrase the key set's passphrase
+     * @return the unlocked key set
+     * @throws CryptographicException if {@code passphrase} is incorrect
+     */
+    public UnlockedKeySet unlock(KeySet keySet, char[] passphrase) throws CryptographicException {
+        if (keySet instanceof UnlockedKeySet) {
+            return (UnlockedKeySet) keySet;
+        }
+
+        final CacheKey key = getKey(keySet, passphrase);
+        final UnlockedKeySet cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        final UnlockedKeySet unlocked = keySet.unlock(passphrase);
+        cache.put(key, unlocked);
+        return unlocked;
+    }
+
+    /**
+     * Removes all cached entries for the given key set, regardless of passphrase.
+     *
+     * @param keySet a key set
+     */
+    public void invalidate(KeySet keySet) {
+        final long keyID = keySet.getMasterKey().getKeyID();
+        for (CacheKey key : cache.keys()) {
+            if (key.keyID == keyID) {
+                cache.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Removes all cached entries.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Returns the number of cached entries.
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    private CacheKey getKey(KeySet keySet, char[] passphrase) {
+        final HMac hmac = new HMac(new SHA256Digest());
+        hmac.init(new KeyParameter(secret));
+
+        // bind the verifier to this particular encryption of the key set
+        final byte[] encoded = new KeySetWriter().toByteArray(keySet);
+        hmac.update(encoded, 0, encoded.length);
+
+        final ByteBuffer buffer = StandardCharsets.UTF_8.encode(CharBuffer.wrap(passphrase));
+        final byte[] passphraseBytes = new byte[buffer.remaining()];
+        buffer.get(passphraseBytes);
+        hmac.update(passphraseBytes, 0, passphraseBytes.length);
+        Arrays.fill(passphraseBytes, (byte) 0);
+        Arrays.fill(buffer.array(), (byte) 0);
+
+        final byte[] verifier = new byte[hmac.getMacSize()];
+        hmac.doFinal(verifier, 0);
+        return new CacheKey(keySet.getMasterKey().getKeyID(), verifier);
+    }
+
+    private static class CacheKey {
+        private final long keyID;
+        private final byte[] verifier;
+
+        private CacheKey(long keyID, byte[] verifier) {
+            this.keyID = keyID;
+            this.verifier = verifier;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            final CacheKey that = (CacheKey) o;
+            return keyID == that.keyID && Arrays.equals(verifier, that.verifier);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (int) (keyID ^ (keyID >>> 32)) + Arrays.hashCode(verifier);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.codahale.gpgj;
 
 import org.bouncycastle.openpgp.PGPPrivateKey;
 import org.bouncycastle.openpgp.PGPSecretKey;
+import org.bouncycastle.openpgp.operator.PBESecretKeyDecryptor;
 
 /**
 * An unlocked {@link MasterKey}.
@@ -19,6 +20,11 @@ public class UnlockedMasterKey extends MasterKey {
         return this;
     }
 
+    @Override
+    UnlockedMasterKey unlock(PBESecretKeyDecryptor decryptor) {
+        return this;
+    }
+
     PGPPrivateKey getPrivateKey() {
         return privateKey;
     }
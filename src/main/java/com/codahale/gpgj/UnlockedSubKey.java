@@ -2,6 +2,7 @@ package com.codahale.gpgj;
 
 import org.bouncycastle.openpgp.PGPPrivateKey;
 import org.bouncycastle.openpgp.PGPSecretKey;
+import org.bouncycastle.openpgp.operator.PBESecretKeyDecryptor;
 
 /**
  * An unlocked {@link SubKey}.
@@ -19,6 +20,11 @@ public class UnlockedSubKey extends SubKey {
         return this;
     }
 
+    @Override
+    UnlockedSubKey unlock(PBESecretKeyDecryptor decryptor) {
+        return this;
+    }
+
     PGPPrivateKey getPrivateKey() {
         return privateKey;
     }
@@ -0,0 +1,94 @@
+package com.codahale.gpgj;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.offset;
+
+public class AdaptiveCompressorOutputStreamTest {
+    @Test
+    public void calculatesEntropy() throws Exception {
+        final byte[] uniform = new byte[256 * 16];
+        for (int i = 0; i < uniform.length; i++) {
+            uniform[i] = (byte) i;
+        }
+
+        assertThat(AdaptiveCompressorOutputStream.entropy(uniform, 0, uniform.length))
+                .isEqualTo(8.0, offset(0.0001));
+
+        assertThat(AdaptiveCompressorOutputStream.entropy(new byte[100], 0, 100))
+                .isEqualTo(0.0, offset(0.0001));
+
+        assertThat(AdaptiveCompressorOutputStream.entropy(new byte[]{0, 1, 0, 1}, 0, 4))
+                .isEqualTo(1.0, offset(0.0001));
+    }
+
+    @Test
+    public void doesNotCompressRandomData() throws Exception {
+        final byte[] data = new byte[AdaptiveCompressorOutputStream.SAMPLE_SIZE * 3];
+        new Random().nextBytes(data);
+
+        final FakeAdaptiveStream stream = new FakeAdaptiveStream();
+        stream.write(data);
+        stream.close();
+
+        assertThat(stream.compressible)
+                .isFalse();
+
+        assertThat(stream.output.toByteArray())
+                .isEqualTo(data);
+    }
+
+    @Test
+    public void compressesText() throws Exception {
+        final byte[] data = new byte[AdaptiveCompressorOutputStream.SAMPLE_SIZE * 2];
+        final byte[] text = "It was the best of times, it was the worst of times. ".getBytes("UTF-8");
+        for (int i = 0; i < data.length; i++) {
+            data[i] = text[i % text.length];
+        }
+
+        final FakeAdaptiveStream stream = new FakeAdaptiveStream();
+        stream.write(data);
+        stream.close();
+
+        assertThat(stream.compressible)
+                .isTrue();
+
+        assertThat(stream.output.toByteArray())
+                .isEqualTo(data);
+    }
+
+    @Test
+    public void decidesOnSmallDataWhenClosed() throws Exception {
+        final FakeAdaptiveStream stream = new FakeAdaptiveStream();
+        stream.write(new byte[]{1, 2, 3});
+
+        assertThat(stream.compressible)
+                .isNull();
+
+        stream.close();
+
+        assertThat(stream.compressible)
+                .isTrue();
+
+        assertThat(Arrays.equals(stream.output.toByteArray(), new byte[]{1, 2, 3}))
+                .isTrue();
+    }
+
+    private static class FakeAdaptiveStream extends AdaptiveCompressorOutputStream {
+        private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        private Boolean compressible;
+
+        @Override
+        protected OutputStream open(boolean compressible) throws IOException {
+            this.compressible = compressible;
+            return output;
+        }
+    }
+}
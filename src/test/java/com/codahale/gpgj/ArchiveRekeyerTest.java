@@ -0,0 +1,202 @@
+package com.codahale.gpgj;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.FileInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+public class ArchiveRekeyerTest extends BCTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final byte[] body = "this is a message".getBytes(StandardCharsets.UTF_8);
+    private final FakeClock clock = new FakeClock();
+    private final RecordingListener listener = new RecordingListener();
+    private UnlockedKeySet owner;
+    private UnlockedKeySet recipient;
+    private ExecutorService executor;
+    private Path archive;
+    private Path checkpoint;
+    private ArchiveRekeyer rekeyer;
+
+    @Before
+    public void setUp() throws Exception {
+        try (FileInputStream keyRingFile = new FileInputStream("src/test/resources/secret-keyring.gpg")) {
+            this.owner = new KeySetReader().read(keyRingFile).unlock("test".toCharArray());
+        }
+
+        try (FileInputStream anotherKeyRingFile = new FileInputStream("src/test/resources/another-secret-keyring.gpg")) {
+            this.recipient = new KeySetReader().read(anotherKeyRingFile).unlock("test2".toCharArray());
+        }
+
+        this.executor = Executors.newFixedThreadPool(4);
+        this.archive = folder.newFolder("archive").toPath();
+        this.checkpoint = folder.getRoot().toPath().resolve("checkpoint");
+
+        final MessageWriter writer =
+                new MessageWriter(owner, new RecipientSet(Collections.<KeySet>emptyList()), new SecureRandom());
+        Files.createDirectories(archive.resolve("a/b"));
+        for (String name : Arrays.asList("1", "2", "a/3", "a/4", "a/b/5")) {
+            Files.write(archive.resolve(name), writer.write(body));
+        }
+
+        final MessageRekeyer messageRekeyer =
+                new MessageRekeyer(owner, new RecipientSet(Arrays.<KeySet>asList(recipient)), new SecureRandom());
+        this.rekeyer = new ArchiveRekeyer(messageRekeyer, executor, 2, checkpoint, listener, 0, clock);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdown();
+    }
+
+    @Test
+    public void rekeysEveryFileInTheArchive() throws Exception {
+        final ArchiveRekeyer.Progress progress = rekeyer.run(archive);
+
+        assertThat(progress.getRekeyed())
+                .isEqualTo(5);
+
+        assertThat(progress.getFailed())
+                .isZero();
+
+        final MessageReader reader = new MessageReader(owner, recipient);
+        for (String name : Arrays.asList("1", "2", "a/3", "a/4", "a/b/5")) {
+            assertThat(reader.read(Files.readAllBytes(archive.resolve(name))))
+                    .isEqualTo(body);
+        }
+
+        assertThat(folder.getRoot().toPath().resolve("archive").toFile().list())
+                .containsOnly("1", "2", "a");
+    }
+
+    @Test
+    public void recordsRekeyedFilesInTheCheckpoint() throws Exception {
+        rekeyer.run(archive);
+
+        assertThat(Files.readAllLines(checkpoint, StandardCharsets.UTF_8))
+                .hasSize(5)
+                .contains(archive.resolve("a/b/5").toAbsolutePath().toString());
+    }
+
+    @Test
+    public void resumesFromTheCheckpoint() throws Exception {
+        rekeyer.run(Arrays.asList(archive.resolve("1"), archive.resolve("a/3")));
+
+        final ArchiveRekeyer.Progress progress = rekeyer.run(archive);
+
+        assertThat(progress.getRekeyed())
+                .isEqualTo(3);
+
+        assertThat(progress.getSkipped())
+                .isEqualTo(2);
+    }
+
+    @Test
+    public void ignoresPartialCheckpointEntries() throws Exception {
+        Files.write(checkpoint, archive.resolve("1").toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8));
+
+        assertThat(rekeyer.run(archive).getSkipped())
+                .isZero();
+    }
+
+    @Test
+    public void reportsFilesWhichCannotBeRekeyed() throws Exception {
+        final Path garbage = archive.resolve("garbage");
+        Files.write(garbage, new byte[]{1, 2, 3});
+
+        final ArchiveRekeyer.Progress progress = rekeyer.run(archive);
+
+        assertThat(progress.getRekeyed())
+                .isEqualTo(5);
+
+        assertThat(progress.getFailed())
+                .isEqualTo(1);
+
+        assertThat(listener.failures)
+                .containsOnly(garbage);
+
+        assertThat(Files.readAllBytes(garbage))
+                .isEqualTo(new byte[]{1, 2, 3});
+    }
+
+    @Test
+    public void reportsDirectoriesWhichCannotBeRead() throws Exception {
+        final Path unreadable = archive.resolve("a/b");
+        Files.setPosixFilePermissions(unreadable, PosixFilePermissions.fromString("---------"));
+        try {
+            assumeTrue(!Files.isReadable(unreadable)); // i.e. not running as root
+
+            final ArchiveRekeyer.Progress progress = rekeyer.run(archive);
+
+            assertThat(progress.getRekeyed())
+                    .isEqualTo(4);
+
+            assertThat(progress.getFailed())
+                    .isEqualTo(1);
+
+            assertThat(listener.failures)
+                    .containsOnly(unreadable);
+        } finally {
+            Files.setPosixFilePermissions(unreadable, PosixFilePermissions.fromString("rwx------"));
+        }
+    }
+
+    @Test
+    public void reportsProgress() throws Exception {
+        final ArchiveRekeyer.Progress progress = rekeyer.run(archive);
+
+        assertThat(listener.reports)
+                .hasSize(6)
+                .contains(progress);
+    }
+
+    @Test
+    public void calculatesThroughput() throws Exception {
+        final ArchiveRekeyer.Progress progress =
+                new ArchiveRekeyer.Progress(100, 0, 0, 1 << 20, TimeUnit.SECONDS.toNanos(2));
+
+        assertThat(progress.getFilesPerSecond())
+                .isEqualTo(50.0);
+
+        assertThat(progress.getBytesPerSecond())
+                .isEqualTo(524288.0);
+
+        assertThat(progress.toString())
+                .isEqualTo("100 re-keyed, 0 skipped, 0 failed, 50.0 files/s, 0.5 MB/s");
+    }
+
+    private static class RecordingListener implements ArchiveRekeyer.Listener {
+        private final List<ArchiveRekeyer.Progress> reports =
+                Collections.synchronizedList(new ArrayList<ArchiveRekeyer.Progress>());
+        private final List<Path> failures = Collections.synchronizedList(new ArrayList<Path>());
+
+        @Override
+        public void onProgress(ArchiveRekeyer.Progress progress) {
+            reports.add(progress);
+        }
+
+        @Override
+        public void onFailure(Path file, Exception cause) {
+            failures.add(file);
+        }
+    }
+}
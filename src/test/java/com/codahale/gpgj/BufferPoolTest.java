@@ -0,0 +1,80 @@
+package com.codahale.gpgj;
+
+import org.junit.Test;
+
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class BufferPoolTest {
+    private final BufferPool pool = new BufferPool(1);
+
+    @Test
+    public void reusesZeroedBuffers() throws Exception {
+        final byte[] buffer = pool.acquire(16);
+        buffer[3] = 42;
+        pool.release(buffer);
+
+        final byte[] reused = pool.acquire(16);
+
+        assertThat(reused)
+                .isSameAs(buffer);
+
+        assertThat(reused)
+                .isEqualTo(new byte[16]);
+    }
+
+    @Test
+    public void poolsBuffersBySize() throws Exception {
+        pool.release(new byte[16]);
+
+        assertThat(pool.acquire(32).length)
+                .isEqualTo(32);
+    }
+
+    @Test
+    public void poolsDeflatersBySettings() throws Exception {
+        final Deflater deflater = pool.acquireDeflater(9, true);
+        pool.release(deflater, 9, true);
+
+        assertThat(pool.acquireDeflater(9, false))
+                .isNotSameAs(deflater);
+
+        assertThat(pool.acquireDeflater(9, true))
+                .isSameAs(deflater);
+    }
+
+    @Test
+    public void endsDeflatersWhichDoNotFit() throws Exception {
+        final Deflater first = pool.acquireDeflater(1, false);
+        final Deflater second = pool.acquireDeflater(1, false);
+        pool.release(first, 1, false);
+        pool.release(second, 1, false);
+
+        try {
+            second.setInput(new byte[10]);
+            second.finish();
+            second.deflate(new byte[100]);
+            failBecauseExceptionWasNotThrown(NullPointerException.class);
+        } catch (NullPointerException ignored) {
+            // the deflater has been ended
+        }
+    }
+
+    @Test
+    public void resetsInflaters() throws Exception {
+        final Inflater inflater = pool.acquireInflater(true);
+        inflater.setInput(new byte[]{1, 2, 3});
+        pool.release(inflater, true);
+
+        final Inflater reused = pool.acquireInflater(true);
+
+        assertThat(reused)
+                .isSameAs(inflater);
+
+        assertThat(reused.getRemaining())
+                .isEqualTo(0);
+    }
+}
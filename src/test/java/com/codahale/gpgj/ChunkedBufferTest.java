@@ -0,0 +1,71 @@
+package com.codahale.gpgj;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class ChunkedBufferTest {
+    @Test
+    public void readsStreamsIntoChunks() throws Exception {
+        final byte[] data = new byte[10000];
+        new Random().nextBytes(data);
+
+        final ChunkedBuffer buffer = new ChunkedBuffer(16, 1024, Long.MAX_VALUE);
+        final ByteArrayInputStream input = new ByteArrayInputStream(data);
+        while (buffer.readFrom(input) >= 0) {
+            assertThat(buffer.isFull())
+                    .isFalse();
+        }
+
+        assertThat(buffer.size())
+                .isEqualTo(data.length);
+        assertThat(buffer.toByteArray())
+                .isEqualTo(data);
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        buffer.writeTo(output);
+        assertThat(output.toByteArray())
+                .isEqualTo(data);
+    }
+
+    @Test
+    public void stopsAtItsLimit() throws Exception {
+        final byte[] data = new byte[1000];
+        new Random().nextBytes(data);
+
+        final ChunkedBuffer buffer = new ChunkedBuffer(16, 1024, 100);
+        final ByteArrayInputStream input = new ByteArrayInputStream(data);
+        while (!buffer.isFull()) {
+            buffer.readFrom(input);
+        }
+
+        assertThat(buffer.toByteArray())
+                .isEqualTo(Arrays.copyOf(data, 100));
+        assertThat(input.available())
+                .isEqualTo(900);
+
+        try {
+            buffer.readFrom(input);
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage())
+                    .isEqualTo("Buffer is full");
+        }
+    }
+
+    @Test
+    public void holdsEmptyStreams() throws Exception {
+        final ChunkedBuffer buffer = new ChunkedBuffer(16, 1024, 100);
+
+        assertThat(buffer.readFrom(new ByteArrayInputStream(new byte[0])))
+                .isEqualTo(-1);
+        assertThat(buffer.toByteArray())
+                .isEmpty();
+    }
+}
@@ -0,0 +1,127 @@
+package com.codahale.gpgj;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.SecureRandom;
+import java.util.Random;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class EncryptedTempFileTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTripsData() throws Exception {
+        for (int size : new int[]{0, 1, EncryptedTempFile.CHUNK_SIZE, 3 * EncryptedTempFile.CHUNK_SIZE + 17}) {
+            final byte[] data = new byte[size];
+            new Random().nextBytes(data);
+
+            try (EncryptedTempFile file = write(folder.newFolder(), data)) {
+                assertThat(file.size())
+                        .isEqualTo(size);
+                assertThat(read(file))
+                        .isEqualTo(data);
+            }
+        }
+    }
+
+    @Test
+    public void encryptsData() throws Exception {
+        final File directory = folder.newFolder();
+        final byte[] data = new byte[1000];
+
+        try (EncryptedTempFile ignored = write(directory, data)) {
+            final File[] files = directory.listFiles();
+            assertThat(files)
+                    .hasSize(1);
+            assertThat(files[0].length())
+                    .isEqualTo(1016);
+
+            try (RandomAccessFile raw = new RandomAccessFile(files[0], "r")) {
+                final byte[] encrypted = new byte[1000];
+                raw.readFully(encrypted);
+                assertThat(encrypted)
+                        .isNotEqualTo(data);
+            }
+        }
+    }
+
+    @Test
+    public void detectsModifiedData() throws Exception {
+        final File directory = folder.newFolder();
+
+        try (EncryptedTempFile file = write(directory, new byte[3 * EncryptedTempFile.CHUNK_SIZE])) {
+            try (RandomAccessFile raw = new RandomAccessFile(directory.listFiles()[0], "rw")) {
+                raw.seek(EncryptedTempFile.CHUNK_SIZE + 100);
+                raw.write(1);
+            }
+
+            try {
+                read(file);
+                failBecauseExceptionWasNotThrown(IOException.class);
+            } catch (IOException e) {
+                assertThat(e.getMessage())
+                        .isEqualTo("Temporary file has been modified");
+            }
+        }
+    }
+
+    @Test
+    public void detectsTruncatedData() throws Exception {
+        final File directory = folder.newFolder();
+
+        try (EncryptedTempFile file = write(directory, new byte[3 * EncryptedTempFile.CHUNK_SIZE])) {
+            try (RandomAccessFile raw = new RandomAccessFile(directory.listFiles()[0], "rw")) {
+                raw.setLength(2 * (EncryptedTempFile.CHUNK_SIZE + 16));
+            }
+
+            try {
+                read(file);
+                failBecauseExceptionWasNotThrown(IOException.class);
+            } catch (IOException e) {
+                assertThat(e.getMessage())
+                        .isEqualTo("Temporary file has been modified");
+            }
+        }
+    }
+
+    @Test
+    public void deletesTheFileWhenClosed() throws Exception {
+        final File directory = folder.newFolder();
+
+        write(directory, new byte[100]).close();
+
+        assertThat(directory.list())
+                .isEmpty();
+    }
+
+    private static EncryptedTempFile write(File directory, byte[] data) throws IOException {
+        final EncryptedTempFile file = new EncryptedTempFile(directory, new SecureRandom());
+        try (OutputStream output = file.openOutputStream()) {
+            output.write(data);
+        }
+        return file;
+    }
+
+    private static byte[] read(EncryptedTempFile file) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream input = file.openInputStream()) {
+            byte[] b = new byte[4096];
+            int r;
+            while ((r = input.read(b)) >= 0) {
+                output.write(b, 0, r);
+            }
+        }
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,125 @@
+package com.codahale.gpgj;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class ExpiringCacheTest {
+    private final FakeClock clock = new FakeClock();
+    private final List<String> evicted = new ArrayList<>();
+    private final ExpiringCache<Integer, String> cache =
+            new ExpiringCache<>(2,
+                                TimeUnit.SECONDS.toNanos(10),
+                                TimeUnit.SECONDS.toNanos(30),
+                                clock,
+                                new ExpiringCache.EvictionListener<String>() {
+                                    @Override
+                                    public void onEviction(String value) {
+                                        evicted.add(value);
+                                    }
+                                });
+
+    @Test
+    public void evictsTheLeastRecentlyUsedEntry() throws Exception {
+        cache.put(1, "one");
+        cache.put(2, "two");
+        cache.get(1);
+        cache.put(3, "three");
+
+        assertThat(cache.keys())
+                .containsOnly(1, 3);
+        assertThat(evicted)
+                .containsExactly("two");
+    }
+
+    @Test
+    public void evictsExpiredEntriesOnAccess() throws Exception {
+        cache.put(1, "one");
+        clock.advance(10, TimeUnit.SECONDS);
+
+        assertThat(cache.get(1))
+                .isNull();
+        assertThat(evicted)
+                .containsExactly("one");
+    }
+
+    @Test
+    public void evictsExpiredEntriesFromTheLeastRecentlyUsedEnd() throws Exception {
+        final ExpiringCache<Integer, String> cache = largerCache();
+        cache.put(1, "one");
+        cache.put(2, "two");
+        clock.advance(9, TimeUnit.SECONDS);
+        cache.get(1);
+        clock.advance(2, TimeUnit.SECONDS);
+        cache.put(3, "three");
+
+        assertThat(cache.keys())
+                .containsExactly(1, 3);
+        assertThat(evicted)
+                .containsExactly("two");
+    }
+
+    @Test
+    public void leavesExpiredEntriesBehindALiveOneUntilTheyreAccessed() throws Exception {
+        final ExpiringCache<Integer, String> cache = largerCache();
+        cache.put(1, "one");
+        for (int i = 0; i < 5; i++) {
+            clock.advance(5, TimeUnit.SECONDS);
+            cache.get(1);
+        }
+        cache.put(2, "two");
+        cache.get(1);
+        clock.advance(7, TimeUnit.SECONDS);
+        cache.put(3, "three");
+
+        assertThat(cache.keys())
+                .containsExactly(2, 1, 3);
+        assertThat(evicted)
+                .isEmpty();
+
+        assertThat(cache.get(1))
+                .isNull();
+        assertThat(evicted)
+                .containsExactly("one");
+    }
+
+    @Test
+    public void evictsReplacedEntries() throws Exception {
+        cache.put(1, "one");
+        cache.put(1, "uno");
+
+        assertThat(cache.get(1))
+                .isEqualTo("uno");
+        assertThat(evicted)
+                .containsExactly("one");
+    }
+
+    @Test
+    public void evictsEverythingWhenCleared() throws Exception {
+        cache.put(1, "one");
+        cache.put(2, "two");
+        cache.clear();
+
+        assertThat(cache.size())
+                .isZero();
+        assertThat(evicted)
+                .containsOnly("one", "two");
+    }
+
+    private ExpiringCache<Integer, String> largerCache() {
+        return new ExpiringCache<>(3,
+                                   TimeUnit.SECONDS.toNanos(10),
+                                   TimeUnit.SECONDS.toNanos(30),
+                                   clock,
+                                   new ExpiringCache.EvictionListener<String>() {
+                                       @Override
+                                       public void onEviction(String value) {
+                                           evicted.add(value);
+                                       }
+                                   });
+    }
+}
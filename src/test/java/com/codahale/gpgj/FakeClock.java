@@ -0,0 +1,16 @@
+package com.codahale.gpgj;
+
+import java.util.concurrent.TimeUnit;
+
+class FakeClock implements Clock {
+    private long nanoTime;
+
+    @Override
+    public long nanoTime() {
+        return nanoTime;
+    }
+
+    void advance(long duration, TimeUnit unit) {
+        nanoTime += unit.toNanos(duration);
+    }
+}
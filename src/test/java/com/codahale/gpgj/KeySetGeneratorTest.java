@@ -114,4 +114,32 @@ public class KeySetGeneratorTest extends BCTest {
                         KeyFlag.SPLIT
                 );
     }
+
+    @Test
+    public void usesTheDefaultS2KIterationCount() throws Exception {
+        assertThat(KEYSET.getMasterKey().getS2KIterationCount())
+                .isEqualTo(S2KIterations.DEFAULT);
+
+        assertThat(KEYSET.getSubKey().getS2KIterationCount())
+                .isEqualTo(S2KIterations.DEFAULT);
+    }
+
+    @Test
+    public void usesACustomS2KIterationCount() throws Exception {
+        final KeySetGenerator generator =
+                new KeySetGenerator(new SecureRandom(), THREAD_POOL,
+                                    RsaKeyGenerator.rsa2048(), RsaKeyGenerator.rsa2048(),
+                                    SymmetricAlgorithm.DEFAULT, 1000000);
+        final KeySet keySet = generator.generate("Sample User <sample@example.com",
+                                                 "hello there".toCharArray());
+
+        assertThat(keySet.getMasterKey().getS2KIterationCount())
+                .isEqualTo(1015808);
+
+        assertThat(keySet.getSubKey().getS2KIterationCount())
+                .isEqualTo(1015808);
+
+        assertThat(keySet.unlock("hello there".toCharArray()))
+                .isNotNull();
+    }
 }
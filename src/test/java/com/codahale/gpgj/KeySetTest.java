@@ -4,8 +4,11 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.FileInputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.failBecauseExceptionWasNotThrown;
 
 public class KeySetTest extends BCTest {
     private KeySet keySet;
@@ -40,4 +43,33 @@ public class KeySetTest extends BCTest {
         assertThat(keySet.getUserID())
                 .isEqualTo("Sample Key <sample@wesabe.com>");
     }
+
+    @Test
+    public void canBeUnlockedInParallel() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final UnlockedKeySet unlocked = keySet.unlock("test".toCharArray(), executor);
+
+            assertThat(unlocked.getUnlockedMasterKey().getKeyID())
+                    .isEqualTo(0x8C7035EF8838238CL);
+            assertThat(unlocked.getUnlockedSubKey().getKeyID())
+                    .isEqualTo(0xA3A5D038FF30574EL);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void cannotBeUnlockedInParallelWithTheWrongPassphrase() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            keySet.unlock("nope".toCharArray(), executor);
+            failBecauseExceptionWasNotThrown(CryptographicException.class);
+        } catch (CryptographicException e) {
+            assertThat(e.getMessage())
+                    .isEqualTo("Incorrect passphrase");
+        } finally {
+            executor.shutdown();
+        }
+    }
 }
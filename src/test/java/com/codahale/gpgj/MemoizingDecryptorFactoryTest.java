@@ -0,0 +1,44 @@
+package com.codahale.gpgj;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.operator.PGPDataDecryptor;
+import org.bouncycastle.openpgp.operator.PublicKeyDataDecryptorFactory;
+import org.junit.Test;
+
+import java.math.BigInteger;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class MemoizingDecryptorFactoryTest {
+    private final byte[] sessionData = {9, 1, 2, 3};
+    private final CountingFactory delegate = new CountingFactory();
+    private final MemoizingDecryptorFactory factory = new MemoizingDecryptorFactory(delegate);
+
+    @Test
+    public void recoversTheSessionKeyOnlyOnce() throws Exception {
+        final BigInteger[] encryptedKey = {BigInteger.TEN};
+
+        assertThat(factory.recoverSessionData(1, encryptedKey))
+                .isEqualTo(sessionData);
+        assertThat(factory.recoverSessionData(1, encryptedKey))
+                .isEqualTo(sessionData);
+
+        assertThat(delegate.recoveries)
+                .isEqualTo(1);
+    }
+
+    private class CountingFactory implements PublicKeyDataDecryptorFactory {
+        private int recoveries;
+
+        @Override
+        public byte[] recoverSessionData(int keyAlgorithm, BigInteger[] secKeyData) throws PGPException {
+            recoveries++;
+            return sessionData;
+        }
+
+        @Override
+        public PGPDataDecryptor createDataDecryptor(boolean withIntegrityPacket, int encAlgorithm, byte[] key) throws PGPException {
+            return null;
+        }
+    }
+}
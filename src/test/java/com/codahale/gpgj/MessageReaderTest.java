@@ -1,22 +1,50 @@
 package com.codahale.gpgj;
 
+import org.bouncycastle.bcpg.PacketTags;
+import org.bouncycastle.openpgp.PGPCompressedDataGenerator;
+import org.bouncycastle.openpgp.PGPEncryptedDataGenerator;
+import org.bouncycastle.openpgp.PGPPrivateKey;
+import org.bouncycastle.openpgp.PGPSignature;
+import org.bouncycastle.openpgp.PGPSignatureGenerator;
+import org.bouncycastle.openpgp.operator.bc.BcPGPContentSignerBuilder;
+import org.bouncycastle.openpgp.operator.bc.BcPGPDataEncryptorBuilder;
+import org.bouncycastle.openpgp.operator.bc.BcPublicKeyKeyEncryptionMethodGenerator;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Inflater;
 
 import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.failBecauseExceptionWasNotThrown;
 
 public class MessageReaderTest extends BCTest {
-    private KeySet owner;
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private UnlockedKeySet owner;
     private UnlockedKeySet recipient;
     private byte[] original;
 
     @Before
     public void setUp() throws Exception {
         try (FileInputStream keyRingFile = new FileInputStream("src/test/resources/secret-keyring.gpg")) {
-            this.owner = new KeySetReader().read(keyRingFile);
+            this.owner = new KeySetReader().read(keyRingFile).unlock("test".toCharArray());
         }
 
         try (FileInputStream anotherKeyRingFile = new FileInputStream("src/test/resources/another-secret-keyring.gpg")) {
@@ -51,4 +79,433 @@ public class MessageReaderTest extends BCTest {
         assertThat(body)
                 .isEqualTo(original);
     }
+
+    @Test
+    public void streamsAnEncryptedMessage() throws Exception {
+        final MessageReader reader = new MessageReader(owner, recipient);
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (FileInputStream input = new FileInputStream("src/test/resources/encrypted-and-signed.txt.gpg");
+             InputStream body = reader.open(input)) {
+            byte[] b = new byte[4096];
+            int r;
+            while ((r = body.read(b)) >= 0) {
+                output.write(b, 0, r);
+            }
+        }
+
+        assertThat(output.toByteArray())
+                .isEqualTo(original);
+    }
+
+    @Test
+    public void skipsPartOfAStreamedMessage() throws Exception {
+        final MessageReader reader = new MessageReader(owner, recipient);
+        try (FileInputStream input = new FileInputStream("src/test/resources/encrypted-and-signed.txt.gpg");
+             InputStream body = reader.open(input)) {
+            assertThat(body.skip(-1))
+                    .isZero();
+            assertThat(body.skip(0))
+                    .isZero();
+            assertThat(body.skip(10))
+                    .isEqualTo(10);
+
+            // the skipped bytes are still verified
+            assertThat(readAll(body))
+                    .isEqualTo(Arrays.copyOfRange(original, 10, original.length));
+        }
+    }
+
+    @Test
+    public void doesNotStreamMessagesWhoseIntegrityCheckFails() throws Exception {
+        final byte[] encrypted = new MessageWriter(owner, Arrays.<KeySet>asList(recipient), new SecureRandom())
+                .write(original);
+        // the last byte of ciphertext is the end of the integrity packet's hash
+        encrypted[encrypted.length - 1] ^= 1;
+
+        final MessageReader reader = new MessageReader(owner, recipient);
+        try (InputStream body = reader.open(new ByteArrayInputStream(encrypted))) {
+            readAll(body);
+            failBecauseExceptionWasNotThrown(IOException.class);
+        } catch (IOException e) {
+            assertThat(e.getCause())
+                    .isInstanceOf(CryptographicException.class);
+            assertThat(e.getCause().getMessage())
+                    .isEqualTo("Integrity check failed");
+        }
+    }
+
+    @Test
+    public void doesNotStreamMessagesSignedByAnotherKey() throws Exception {
+        // a signature which claims to be by the owner, but which was made with another key
+        final PGPPrivateKey otherKey = recipient.getUnlockedMasterKey().getPrivateKey();
+        final PGPPrivateKey impostor = new PGPPrivateKey(owner.getMasterKey().getKeyID(),
+                                                         otherKey.getPublicKeyPacket(),
+                                                         otherKey.getPrivateKeyDataPacket());
+        final ByteArrayOutputStream literal = new ByteArrayOutputStream();
+        literal.write(PacketHeader.encode(PacketTags.LITERAL_DATA, 6 + original.length));
+        literal.write(new byte[]{'b', 0, 0, 0, 0, 0});
+        literal.write(original);
+        final byte[] encrypted = forge(impostor, literal.toByteArray(), original);
+
+        final MessageReader reader = new MessageReader(owner, recipient);
+        try (InputStream body = reader.open(new ByteArrayInputStream(encrypted))) {
+            // the body is returned unauthenticated until the end is reached
+            final byte[] b = new byte[original.length];
+            int n = 0;
+            while (n < b.length) {
+                final int r = body.read(b, n, b.length - n);
+                assertThat(r)
+                        .isPositive();
+                n += r;
+            }
+            assertThat(b)
+                    .isEqualTo(original);
+
+            try {
+                body.read();
+                failBecauseExceptionWasNotThrown(IOException.class);
+            } catch (IOException e) {
+                assertThat(e.getCause())
+                        .isInstanceOf(CryptographicException.class);
+                assertThat(e.getCause().getMessage())
+                        .isEqualTo("Invalid signature");
+            }
+        }
+    }
+
+    @Test
+    public void recoversTheSessionKey() throws Exception {
+        final MessageReader reader = new MessageReader(owner, recipient);
+        final SessionKey sessionKey;
+        try (FileInputStream input = new FileInputStream("src/test/resources/encrypted-and-signed.txt.gpg")) {
+            sessionKey = reader.recoverSessionKey(input);
+        }
+
+        assertThat(sessionKey.getAlgorithm())
+                .isIn(SymmetricAlgorithm.ACCEPTABLE_ALGORITHMS);
+
+        final MessageReader sessionKeyReader = new MessageReader(owner);
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (FileInputStream input = new FileInputStream("src/test/resources/encrypted-and-signed.txt.gpg");
+             InputStream body = sessionKeyReader.open(input, sessionKey)) {
+            byte[] b = new byte[4096];
+            int r;
+            while ((r = body.read(b)) >= 0) {
+                output.write(b, 0, r);
+            }
+        }
+
+        assertThat(output.toByteArray())
+                .isEqualTo(original);
+    }
+
+    @Test
+    public void readsMessagesWithSessionKeys() throws Exception {
+        final byte[] encrypted = new MessageWriter(owner, Arrays.<KeySet>asList(recipient), new SecureRandom())
+                .write(original);
+
+        final SessionKey sessionKey = new MessageReader(owner, recipient).recoverSessionKey(encrypted);
+
+        assertThat(new MessageReader(owner).read(encrypted, SessionKey.parse(sessionKey.encode())))
+                .isEqualTo(original);
+    }
+
+    @Test
+    public void doesNotReadMessagesWithTheWrongSessionKey() throws Exception {
+        final byte[] encrypted;
+        try (FileInputStream input = new FileInputStream("src/test/resources/encrypted-and-signed.txt.gpg")) {
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] b = new byte[4096];
+            int r;
+            while ((r = input.read(b)) >= 0) {
+                output.write(b, 0, r);
+            }
+            encrypted = output.toByteArray();
+        }
+
+        final SessionKey sessionKey = new MessageReader(owner, recipient).recoverSessionKey(encrypted);
+        final byte[] key = sessionKey.getKey();
+        key[0] ^= 1;
+
+        try {
+            new MessageReader(owner).read(encrypted, new SessionKey(sessionKey.getAlgorithm(), key));
+            failBecauseExceptionWasNotThrown(CryptographicException.class);
+        } catch (CryptographicException ignored) {
+            // the body can't be decrypted
+        }
+    }
+
+    @Test
+    public void doesNotReadMessagesWithoutARecipientOrSessionKey() throws Exception {
+        try {
+            new MessageReader(owner).read(new byte[0]);
+            failBecauseExceptionWasNotThrown(CryptographicException.class);
+        } catch (CryptographicException e) {
+            assertThat(e.getMessage())
+                    .isEqualTo("No recipient key, so messages can only be read with session keys");
+        }
+    }
+
+    @Test
+    public void cachesSessionKeys() throws Exception {
+        final byte[] encrypted;
+        try (FileInputStream input = new FileInputStream("src/test/resources/encrypted-and-signed.txt.gpg")) {
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] b = new byte[4096];
+            int r;
+            while ((r = input.read(b)) >= 0) {
+                output.write(b, 0, r);
+            }
+            encrypted = output.toByteArray();
+        }
+
+        final SessionKeyCache cache = new SessionKeyCache(10, 1, 1, TimeUnit.HOURS);
+        final MessageReader reader = new MessageReader(owner, recipient, cache);
+
+        assertThat(reader.read(encrypted))
+                .isEqualTo(original);
+        assertThat(reader.read(encrypted))
+                .isEqualTo(original);
+
+        assertThat(cache.getMisses())
+                .isEqualTo(1);
+
+        assertThat(cache.getHits())
+                .isEqualTo(1);
+    }
+
+    @Test
+    public void readsLargeMessagesInAPipeline() throws Exception {
+        final byte[] body = new byte[4 << 20];
+        new Random().nextBytes(body);
+        final byte[] encrypted = new MessageWriter(owner, Arrays.<KeySet>asList(recipient), new SecureRandom())
+                .write(body);
+
+        for (ExecutorService executor : Arrays.asList(Executors.newFixedThreadPool(4),
+                                                      Executors.newSingleThreadExecutor())) {
+            try {
+                final MessageReader reader = new MessageReader(owner, recipient, null, executor);
+
+                assertThat(reader.read(encrypted))
+                        .isEqualTo(body);
+
+                final byte[] tampered = encrypted.clone();
+                tampered[tampered.length / 2] ^= 1;
+                try {
+                    reader.read(tampered);
+                    failBecauseExceptionWasNotThrown(CryptographicException.class);
+                } catch (CryptographicException ignored) {
+                    // the tampering is detected
+                }
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void readsBodiesWithAndWithoutDefiniteLengths() throws Exception {
+        final MessageWriter writer = new MessageWriter(owner, Arrays.<KeySet>asList(recipient), new SecureRandom());
+        final MessageReader reader = new MessageReader(owner, recipient);
+
+        for (int size : new int[]{0, 1000, 16 * 1024, 3 * 16 * 1024, 200001}) {
+            final byte[] body = new byte[size];
+            new Random().nextBytes(body);
+
+            // small messages are written with definite lengths, streamed ones with partial lengths
+            final ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+            writer.write(new ByteArrayInputStream(body), streamed);
+
+            assertThat(reader.read(writer.write(body)))
+                    .isEqualTo(body);
+
+            assertThat(reader.read(streamed.toByteArray()))
+                    .isEqualTo(body);
+
+            assertThat(reader.read(new ByteArrayInputStream(streamed.toByteArray())))
+                    .isEqualTo(body);
+        }
+    }
+
+    @Test
+    public void doesNotTrustTheLiteralDataLength() throws Exception {
+        // a literal data packet which claims to be almost 2GB long, but holds only a few bytes
+        final ByteArrayOutputStream literal = new ByteArrayOutputStream();
+        literal.write(PacketHeader.encode(PacketTags.LITERAL_DATA, Integer.MAX_VALUE - 16));
+        literal.write(new byte[]{'b', 0, 0, 0, 0, 0, 1, 2, 3});
+        final byte[] encrypted = forge(literal.toByteArray());
+
+        final MessageReader reader = new MessageReader(owner, recipient);
+        try {
+            reader.read(encrypted);
+            failBecauseExceptionWasNotThrown(CryptographicException.class);
+        } catch (CryptographicException ignored) {
+            // the body is truncated
+        }
+
+        try {
+            reader.read(new ByteArrayInputStream(encrypted));
+            failBecauseExceptionWasNotThrown(CryptographicException.class);
+        } catch (CryptographicException ignored) {
+            // the body is truncated
+        }
+    }
+
+    @Test
+    public void doesNotReadMalformedLiteralDataHeaders() throws Exception {
+        // a literal data packet too short to hold its own header
+        final byte[] encrypted = forge(new byte[]{(byte) (0xC0 | PacketTags.LITERAL_DATA), 2, 'b', 0});
+
+        try {
+            new MessageReader(owner, recipient).read(encrypted);
+            failBecauseExceptionWasNotThrown(CryptographicException.class);
+        } catch (CryptographicException ignored) {
+            // the packet is malformed
+        }
+    }
+
+    @Test
+    public void spillsLargeBodiesToAnEncryptedTemporaryFile() throws Exception {
+        final MessageWriter writer = new MessageWriter(owner, Arrays.<KeySet>asList(recipient), new SecureRandom());
+        final MessageReader reader = new MessageReader(owner, recipient);
+        final File directory = folder.newFolder();
+
+        final byte[] body = new byte[200001];
+        new Random().nextBytes(body);
+        final ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        writer.write(new ByteArrayInputStream(body), streamed);
+
+        for (byte[] encrypted : new byte[][]{writer.write(body), streamed.toByteArray()}) {
+            try (MessageBody small = reader.read(new ByteArrayInputStream(encrypted), body.length, directory)) {
+                assertThat(small.isInMemory())
+                        .isTrue();
+                assertThat(readAll(small.openStream()))
+                        .isEqualTo(body);
+            }
+
+            try (MessageBody large = reader.read(new ByteArrayInputStream(encrypted), 1000, directory)) {
+                assertThat(large.isInMemory())
+                        .isFalse();
+                assertThat(large.size())
+                        .isEqualTo(body.length);
+                assertThat(directory.list())
+                        .hasSize(1);
+                assertThat(readAll(large.openStream()))
+                        .isEqualTo(body);
+                assertThat(readAll(large.openStream()))
+                        .isEqualTo(body);
+            }
+
+            assertThat(directory.list())
+                    .isEmpty();
+        }
+    }
+
+    @Test
+    public void deletesTheTemporaryFileOfUnverifiedMessages() throws Exception {
+        final MessageWriter writer = new MessageWriter(owner, Arrays.<KeySet>asList(recipient), new SecureRandom());
+        final File directory = folder.newFolder();
+
+        final byte[] body = new byte[200001];
+        new Random().nextBytes(body);
+        final byte[] encrypted = writer.write(body);
+        encrypted[encrypted.length - 30] ^= 1;
+
+        try {
+            new MessageReader(owner, recipient).read(new ByteArrayInputStream(encrypted), 1000, directory);
+            failBecauseExceptionWasNotThrown(CryptographicException.class);
+        } catch (CryptographicException ignored) {
+            // the end of the message has been modified
+        }
+
+        assertThat(directory.list())
+                .isEmpty();
+    }
+
+    @Test
+    public void returnsInflatersToThePool() throws Exception {
+        final byte[] encrypted;
+        try (FileInputStream input = new FileInputStream("src/test/resources/encrypted-and-signed.txt.gpg")) {
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] b = new byte[4096];
+            int r;
+            while ((r = input.read(b)) >= 0) {
+                output.write(b, 0, r);
+            }
+            encrypted = output.toByteArray();
+        }
+
+        final AtomicInteger released = new AtomicInteger();
+        final BufferPool pool = new BufferPool(4) {
+            @Override
+            void release(Inflater inflater, boolean nowrap) {
+                released.incrementAndGet();
+                super.release(inflater, nowrap);
+            }
+        };
+        final MessageReader reader = new MessageReader(owner, recipient, null, null, pool);
+
+        assertThat(reader.read(encrypted))
+                .isEqualTo(original);
+        assertThat(reader.read(encrypted))
+                .isEqualTo(original);
+
+        assertThat(released.get())
+                .isEqualTo(2);
+    }
+
+    private static byte[] readAll(InputStream input) throws Exception {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream in = input) {
+            byte[] b = new byte[4096];
+            int r;
+            while ((r = in.read(b)) >= 0) {
+                output.write(b, 0, r);
+            }
+        }
+        return output.toByteArray();
+    }
+
+    /*
+     * Signs, compresses, and encrypts the given literal data packet as MessageWriter would, but
+     * without checking that it's well-formed.
+     */
+    private byte[] forge(byte[] literalPacket) throws Exception {
+        return forge(owner.getUnlockedMasterKey().getPrivateKey(), literalPacket, null);
+    }
+
+    /*
+     * As above, but signs with the given key, and follows the literal data packet with a signature
+     * of the given data, if any.
+     */
+    private byte[] forge(PGPPrivateKey signingKey, byte[] literalPacket, byte[] signedData) throws Exception {
+        final PGPSignatureGenerator signatureGenerator = new PGPSignatureGenerator(
+                new BcPGPContentSignerBuilder(signingKey.getPublicKeyPacket().getAlgorithm(),
+                                              HashAlgorithm.SHA_512.value()));
+        signatureGenerator.init(PGPSignature.BINARY_DOCUMENT, signingKey);
+
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream output = new PGPCompressedDataGenerator(CompressionAlgorithm.ZLIB.value())
+                .open(compressed)) {
+            signatureGenerator.generateOnePassVersion(false).encode(output);
+            output.write(literalPacket);
+            if (signedData != null) {
+                signatureGenerator.update(signedData);
+                signatureGenerator.generate().encode(output);
+            }
+        }
+
+        final PGPEncryptedDataGenerator encryptedDataGenerator = new PGPEncryptedDataGenerator(
+                new BcPGPDataEncryptorBuilder(SymmetricAlgorithm.AES_256.value())
+                        .setWithIntegrityPacket(true)
+                        .setSecureRandom(new SecureRandom()));
+        encryptedDataGenerator.addMethod(
+                new BcPublicKeyKeyEncryptionMethodGenerator(recipient.getSubKey().getPublicKey()));
+
+        final ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        try (OutputStream output = encryptedDataGenerator.open(encrypted, compressed.size())) {
+            output.write(compressed.toByteArray());
+        }
+        return encrypted.toByteArray();
+    }
 }
@@ -0,0 +1,104 @@
+package com.codahale.gpgj;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class MessageRekeyerTest extends BCTest {
+    private UnlockedKeySet owner;
+    private UnlockedKeySet recipient;
+    private RecipientSet nobody;
+    private RecipientSet everybody;
+    private byte[] original;
+
+    @Before
+    public void setUp() throws Exception {
+        try (FileInputStream keyRingFile = new FileInputStream("src/test/resources/secret-keyring.gpg")) {
+            this.owner = new KeySetReader().read(keyRingFile).unlock("test".toCharArray());
+        }
+
+        try (FileInputStream anotherKeyRingFile = new FileInputStream("src/test/resources/another-secret-keyring.gpg")) {
+            this.recipient = new KeySetReader().read(anotherKeyRingFile).unlock("test2".toCharArray());
+        }
+
+        this.nobody = new RecipientSet(Collections.<KeySet>emptyList());
+        this.everybody = new RecipientSet(Arrays.<KeySet>asList(recipient));
+
+        this.original = new byte[1 << 16];
+        new Random().nextBytes(original);
+    }
+
+    @Test
+    public void addsRecipients() throws Exception {
+        final byte[] encrypted = new MessageWriter(owner, nobody, new SecureRandom()).write(original);
+        final byte[] rekeyed = new MessageRekeyer(owner, everybody, new SecureRandom()).rekey(encrypted);
+
+        assertThat(new MessageReader(owner, recipient).read(rekeyed))
+                .isEqualTo(original);
+
+        assertThat(new MessageReader(owner, owner).read(rekeyed))
+                .isEqualTo(original);
+    }
+
+    @Test
+    public void removesRecipients() throws Exception {
+        final byte[] encrypted = new MessageWriter(owner, everybody, new SecureRandom()).write(original);
+        final byte[] rekeyed = new MessageRekeyer(owner, nobody, new SecureRandom()).rekey(encrypted);
+
+        assertThat(new MessageReader(owner, owner).read(rekeyed))
+                .isEqualTo(original);
+
+        try {
+            new MessageReader(owner, recipient).read(rekeyed);
+            failBecauseExceptionWasNotThrown(CryptographicException.class);
+        } catch (CryptographicException e) {
+            assertThat(e.getMessage())
+                    .startsWith("No encrypted data for");
+        }
+    }
+
+    @Test
+    public void copiesTheEncryptedDataUnchanged() throws Exception {
+        final byte[] encrypted = new MessageWriter(owner, everybody, new SecureRandom()).write(original);
+        final byte[] rekeyed = new MessageRekeyer(owner, nobody, new SecureRandom()).rekey(encrypted);
+
+        final int bodySize = Math.min(encrypted.length, rekeyed.length) - 1024;
+        assertThat(Arrays.copyOfRange(rekeyed, rekeyed.length - bodySize, rekeyed.length))
+                .isEqualTo(Arrays.copyOfRange(encrypted, encrypted.length - bodySize, encrypted.length));
+    }
+
+    @Test
+    public void streamsMessages() throws Exception {
+        final byte[] encrypted = new MessageWriter(owner, nobody, new SecureRandom()).write(original);
+
+        final ByteArrayOutputStream rekeyed = new ByteArrayOutputStream();
+        new MessageRekeyer(owner, everybody, new SecureRandom())
+                .rekey(new ByteArrayInputStream(encrypted), rekeyed);
+
+        assertThat(new MessageReader(owner, recipient).read(rekeyed.toByteArray()))
+                .isEqualTo(original);
+    }
+
+    @Test
+    public void doesNotRekeyMessagesForOtherUsers() throws Exception {
+        final byte[] encrypted = new MessageWriter(owner, nobody, new SecureRandom()).write(original);
+
+        try {
+            new MessageRekeyer(recipient, everybody, new SecureRandom()).rekey(encrypted);
+            failBecauseExceptionWasNotThrown(CryptographicException.class);
+        } catch (CryptographicException e) {
+            assertThat(e.getMessage())
+                    .startsWith("No encrypted data for");
+        }
+    }
+}
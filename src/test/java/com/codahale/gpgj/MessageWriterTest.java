@@ -1,14 +1,26 @@
 package com.codahale.gpgj;
 
+import org.bouncycastle.bcpg.PacketTags;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
 
 import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.failBecauseExceptionWasNotThrown;
 
 public class MessageWriterTest extends BCTest {
     private UnlockedKeySet owner;
@@ -43,4 +55,361 @@ public class MessageWriterTest extends BCTest {
         assertThat(decrypted)
                 .isEqualTo(original);
     }
+
+    @Test
+    public void streamsMessagesReadableByMessageReader() throws Exception {
+        final MessageWriter writer = new MessageWriter(owner, Arrays.<KeySet>asList(recipient), new SecureRandom());
+
+        final ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        writer.write(new ByteArrayInputStream(original), encrypted);
+
+        final MessageReader reader = new MessageReader(owner, recipient);
+        final byte[] decrypted = reader.read(encrypted.toByteArray());
+
+        assertThat(decrypted)
+                .isEqualTo(original);
+    }
+
+    @Test
+    public void abandonsMessagesWhoseBodiesCannotBeRead() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (Executor e : new Executor[]{null, executor}) {
+                final AtomicInteger borrowed = new AtomicInteger();
+                final BufferPool pool = new BufferPool(4) {
+                    @Override
+                    byte[] acquire(int size) {
+                        borrowed.incrementAndGet();
+                        return super.acquire(size);
+                    }
+
+                    @Override
+                    void release(byte[] buffer) {
+                        borrowed.decrementAndGet();
+                        super.release(buffer);
+                    }
+
+                    @Override
+                    Deflater acquireDeflater(int level, boolean nowrap) {
+                        borrowed.incrementAndGet();
+                        return super.acquireDeflater(level, nowrap);
+                    }
+
+                    @Override
+                    void release(Deflater deflater, int level, boolean nowrap) {
+                        borrowed.decrementAndGet();
+                        super.release(deflater, level, nowrap);
+                    }
+                };
+                final MessageWriter writer = new MessageWriter(owner,
+                                                               new RecipientSet(Arrays.<KeySet>asList(recipient)),
+                                                               new SecureRandom(),
+                                                               SymmetricAlgorithm.DEFAULT,
+                                                               HashAlgorithm.DEFAULT,
+                                                               CompressionAlgorithm.DEFAULT,
+                                                               e,
+                                                               MessageWriter.DEFAULT_COMPRESSION,
+                                                               pool,
+                                                               new SizeEstimator());
+
+                // the body fails after most of it has been read
+                final InputStream body = new FilterInputStream(new ByteArrayInputStream(original)) {
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        if (available() < original.length / 4) {
+                            throw new IOException("Source failed");
+                        }
+                        return super.read(b, off, len);
+                    }
+                };
+
+                final ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+                try {
+                    writer.write(body, encrypted);
+                    failBecauseExceptionWasNotThrown(IOException.class);
+                } catch (IOException ex) {
+                    assertThat(ex.getMessage())
+                            .isEqualTo("Source failed");
+                }
+
+                assertThat(encrypted.size())
+                        .isGreaterThan(0);
+
+                assertThat(borrowed.get())
+                        .isZero();
+
+                try {
+                    new MessageReader(owner, recipient).read(encrypted.toByteArray());
+                    failBecauseExceptionWasNotThrown(CryptographicException.class);
+                } catch (CryptographicException ignored) {
+                    // the message has no signature or integrity packet
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void writesMessagesToRecipientSets() throws Exception {
+        final RecipientSet recipients = new RecipientSet(Arrays.<KeySet>asList(recipient, owner));
+        final MessageWriter writer = new MessageWriter(owner, recipients, new SecureRandom());
+
+        final MessageReader ownerReader = new MessageReader(owner, owner);
+        final MessageReader recipientReader = new MessageReader(owner, recipient);
+
+        for (int i = 0; i < 2; i++) {
+            final byte[] encrypted = writer.write(original);
+
+            assertThat(ownerReader.read(encrypted))
+                    .isEqualTo(original);
+
+            assertThat(recipientReader.read(encrypted))
+                    .isEqualTo(original);
+        }
+    }
+
+    @Test
+    public void encryptsSessionKeysInParallel() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final MessageWriter writer = new MessageWriter(owner,
+                                                           new RecipientSet(Arrays.<KeySet>asList(recipient)),
+                                                           new SecureRandom(),
+                                                           SymmetricAlgorithm.DEFAULT,
+                                                           HashAlgorithm.DEFAULT,
+                                                           CompressionAlgorithm.DEFAULT,
+                                                           executor);
+
+            final byte[] encrypted = writer.write(original);
+
+            assertThat(new MessageReader(owner, owner).read(encrypted))
+                    .isEqualTo(original);
+
+            assertThat(new MessageReader(owner, recipient).read(encrypted))
+                    .isEqualTo(original);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void pipelinesStreamsOnASingleThread() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final MessageWriter writer = new MessageWriter(owner,
+                                                           new RecipientSet(Arrays.<KeySet>asList(recipient)),
+                                                           new SecureRandom(),
+                                                           SymmetricAlgorithm.DEFAULT,
+                                                           HashAlgorithm.DEFAULT,
+                                                           CompressionAlgorithm.DEFAULT,
+                                                           executor);
+
+            final ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+            writer.write(new ByteArrayInputStream(original), encrypted);
+
+            assertThat(new MessageReader(owner, recipient).read(encrypted.toByteArray()))
+                    .isEqualTo(original);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void encryptsSignedPayloadsToSeparateRecipients() throws Exception {
+        final MessageWriter ownerWriter =
+                new MessageWriter(owner, new RecipientSet(Arrays.<KeySet>asList(owner)), new SecureRandom());
+        final MessageWriter recipientWriter =
+                new MessageWriter(owner, new RecipientSet(Arrays.<KeySet>asList(recipient)), new SecureRandom());
+
+        final SignedPayload payload = ownerWriter.sign(original);
+
+        assertThat(new MessageReader(owner, owner).read(ownerWriter.write(payload)))
+                .isEqualTo(original);
+
+        final ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        recipientWriter.write(payload, encrypted);
+
+        assertThat(new MessageReader(owner, recipient).read(encrypted.toByteArray()))
+                .isEqualTo(original);
+    }
+
+    @Test
+    public void writesSmallMessagesWithDefiniteLengths() throws Exception {
+        final MessageWriter writer = new MessageWriter(owner, Arrays.<KeySet>asList(recipient), new SecureRandom());
+        final byte[] body = Arrays.copyOf(original, 1000);
+
+        final byte[] encrypted = writer.write(body);
+
+        final ByteArrayInputStream input = new ByteArrayInputStream(encrypted);
+        PacketHeader header;
+        int lastTag = -1;
+        while ((header = PacketHeader.read(input)) != null) {
+            assertThat(header.getBodyLength())
+                    .isNotEqualTo(PacketHeader.UNKNOWN_LENGTH);
+            assertThat(input.skip(header.getBodyLength()))
+                    .isEqualTo(header.getBodyLength());
+            lastTag = header.getTag();
+        }
+
+        assertThat(lastTag)
+                .isEqualTo(PacketTags.SYM_ENC_INTEGRITY_PRO);
+
+        assertThat(new MessageReader(owner, recipient).read(encrypted))
+                .isEqualTo(body);
+
+        final ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        writer.write(body, streamed);
+
+        assertThat(streamed.size())
+                .isEqualTo(encrypted.length);
+
+        assertThat(new MessageReader(owner, recipient).read(streamed.toByteArray()))
+                .isEqualTo(body);
+    }
+
+    @Test
+    public void signsSmallPayloadsWithDefiniteLengths() throws Exception {
+        final MessageWriter writer = new MessageWriter(owner, Arrays.<KeySet>asList(recipient), new SecureRandom());
+        final byte[] body = Arrays.copyOf(original, 1000);
+
+        final SignedPayload payload = writer.sign(body);
+
+        final byte[] encoded = payload.getEncoded();
+        final ByteArrayInputStream input = new ByteArrayInputStream(encoded);
+        final PacketHeader header = PacketHeader.read(input);
+
+        assertThat(header.getTag())
+                .isEqualTo(PacketTags.COMPRESSED_DATA);
+        assertThat(header.getBodyLength())
+                .isEqualTo(input.available());
+
+        assertThat(new MessageReader(owner, recipient).read(writer.write(payload)))
+                .isEqualTo(body);
+    }
+
+    @Test
+    public void learnsTheCompressionRatio() throws Exception {
+        final MessageWriter writer = new MessageWriter(owner,
+                                                       new RecipientSet(Arrays.<KeySet>asList(recipient)),
+                                                       new SecureRandom(),
+                                                       SymmetricAlgorithm.DEFAULT,
+                                                       HashAlgorithm.DEFAULT,
+                                                       CompressionAlgorithm.DEFAULT,
+                                                       null,
+                                                       MessageWriter.DEFAULT_COMPRESSION,
+                                                       BufferPool.SHARED,
+                                                       new SizeEstimator());
+        final byte[] text = new byte[10000];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = (byte) ('a' + (i % 7));
+        }
+
+        assertThat(writer.getEstimatedCompressionRatio())
+                .isEqualTo(SizeEstimator.DEFAULT_RATIO);
+
+        for (int i = 0; i < 20; i++) {
+            writer.write(text);
+        }
+
+        assertThat(writer.getEstimatedCompressionRatio())
+                .isLessThan(0.1);
+    }
+
+    @Test
+    public void learnsTheCompressionRatioOfEachLevelSeparately() throws Exception {
+        final SizeEstimator estimator = new SizeEstimator();
+        final MessageWriter stored = estimatingWriter(0, estimator);
+        final MessageWriter compressed = estimatingWriter(MessageWriter.DEFAULT_COMPRESSION, estimator);
+        final byte[] text = new byte[10000];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = (byte) ('a' + (i % 7));
+        }
+
+        for (int i = 0; i < 20; i++) {
+            stored.write(text);
+            compressed.write(text);
+        }
+
+        assertThat(stored.getEstimatedCompressionRatio())
+                .isGreaterThan(1.0);
+        assertThat(compressed.getEstimatedCompressionRatio())
+                .isLessThan(0.1);
+    }
+
+    @Test
+    public void writesMessagesAtAGivenCompressionLevel() throws Exception {
+        final byte[] text = new byte[1 << 20];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = (byte) ('a' + (i % 7));
+        }
+
+        final byte[] fast = compressionWriter(1).write(text);
+        final byte[] stored = compressionWriter(0).write(text);
+
+        assertThat(fast.length)
+                .isLessThan(text.length / 10);
+
+        assertThat(stored.length)
+                .isGreaterThan(text.length);
+
+        assertThat(new MessageReader(owner, recipient).read(stored))
+                .isEqualTo(text);
+    }
+
+    @Test
+    public void storesIncompressibleBodiesWithAdaptiveCompression() throws Exception {
+        final byte[] encrypted = compressionWriter(MessageWriter.ADAPTIVE_COMPRESSION).write(original);
+
+        assertThat(encrypted.length)
+                .isGreaterThan(original.length);
+
+        assertThat(new MessageReader(owner, recipient).read(encrypted))
+                .isEqualTo(original);
+    }
+
+    @Test
+    public void compressesCompressibleBodiesWithAdaptiveCompression() throws Exception {
+        final byte[] text = new byte[1 << 20];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = (byte) ('a' + (i % 7));
+        }
+
+        final byte[] encrypted = compressionWriter(MessageWriter.ADAPTIVE_COMPRESSION).write(text);
+
+        assertThat(encrypted.length)
+                .isLessThan(text.length / 10);
+
+        assertThat(new MessageReader(owner, recipient).read(encrypted))
+                .isEqualTo(text);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidCompressionLevels() throws Exception {
+        compressionWriter(10);
+    }
+
+    private MessageWriter compressionWriter(int compressionLevel) throws Exception {
+        return new MessageWriter(owner,
+                                 new RecipientSet(Arrays.<KeySet>asList(recipient)),
+                                 new SecureRandom(),
+                                 SymmetricAlgorithm.DEFAULT,
+                                 HashAlgorithm.DEFAULT,
+                                 CompressionAlgorithm.DEFAULT,
+                                 null,
+                                 compressionLevel);
+    }
+
+    private MessageWriter estimatingWriter(int compressionLevel, SizeEstimator estimator) throws Exception {
+        return new MessageWriter(owner,
+                                 new RecipientSet(Arrays.<KeySet>asList(recipient)),
+                                 new SecureRandom(),
+                                 SymmetricAlgorithm.DEFAULT,
+                                 HashAlgorithm.DEFAULT,
+                                 CompressionAlgorithm.DEFAULT,
+                                 null,
+                                 compressionLevel,
+                                 BufferPool.SHARED,
+                                 estimator);
+    }
 }
@@ -0,0 +1,114 @@
+package com.codahale.gpgj;
+
+import org.bouncycastle.bcpg.BCPGOutputStream;
+import org.bouncycastle.bcpg.PacketTags;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class PacketHeaderTest {
+    @Test
+    public void readsNewFormatOneOctetLengths() throws Exception {
+        final PacketHeader header = read(0xC0 | PacketTags.LITERAL_DATA, 100);
+
+        assertThat(header.getTag())
+                .isEqualTo(PacketTags.LITERAL_DATA);
+        assertThat(header.getBodyLength())
+                .isEqualTo(100);
+    }
+
+    @Test
+    public void readsNewFormatTwoOctetLengths() throws Exception {
+        assertThat(read(0xC0 | PacketTags.LITERAL_DATA, 0xC5, 0xFB).getBodyLength())
+                .isEqualTo(1723);
+    }
+
+    @Test
+    public void readsNewFormatFiveOctetLengths() throws Exception {
+        assertThat(read(0xC0 | PacketTags.LITERAL_DATA, 0xFF, 0x00, 0x01, 0x86, 0xA0).getBodyLength())
+                .isEqualTo(100000);
+    }
+
+    @Test
+    public void readsNewFormatPartialLengths() throws Exception {
+        assertThat(read(0xC0 | PacketTags.SYM_ENC_INTEGRITY_PRO, 0xEF).getBodyLength())
+                .isEqualTo(PacketHeader.UNKNOWN_LENGTH);
+    }
+
+    @Test
+    public void readsOldFormatHeaders() throws Exception {
+        final PacketHeader header = read(0x80 | (PacketTags.PUBLIC_KEY_ENC_SESSION << 2) | 1, 0x01, 0x0C);
+
+        assertThat(header.getTag())
+                .isEqualTo(PacketTags.PUBLIC_KEY_ENC_SESSION);
+        assertThat(header.getBodyLength())
+                .isEqualTo(268);
+    }
+
+    @Test
+    public void readsOldFormatIndeterminateLengths() throws Exception {
+        assertThat(read(0x80 | (PacketTags.COMPRESSED_DATA << 2) | 3).getBodyLength())
+                .isEqualTo(PacketHeader.UNKNOWN_LENGTH);
+    }
+
+    @Test
+    public void writesHeadersAsTheyWereRead() throws Exception {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        read(0xC0 | PacketTags.LITERAL_DATA, 0xC5, 0xFB).writeTo(output);
+
+        assertThat(output.toByteArray())
+                .isEqualTo(new byte[]{(byte) (0xC0 | PacketTags.LITERAL_DATA), (byte) 0xC5, (byte) 0xFB});
+    }
+
+    @Test
+    public void encodesDefiniteLengthHeaders() throws Exception {
+        for (long length : new long[]{0, 191, 192, 8383, 8384, 100000}) {
+            final PacketHeader header =
+                    PacketHeader.read(new ByteArrayInputStream(PacketHeader.encode(PacketTags.COMPRESSED_DATA, length)));
+
+            assertThat(header.getTag())
+                    .isEqualTo(PacketTags.COMPRESSED_DATA);
+            assertThat(header.getBodyLength())
+                    .isEqualTo(length);
+        }
+    }
+
+    @Test
+    public void encodesHeadersAsBouncyCastleDoes() throws Exception {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new BCPGOutputStream(output, PacketTags.SYM_ENC_INTEGRITY_PRO, 1723);
+
+        assertThat(PacketHeader.encode(PacketTags.SYM_ENC_INTEGRITY_PRO, 1723))
+                .isEqualTo(output.toByteArray());
+    }
+
+    @Test
+    public void returnsNullAtTheEndOfTheStream() throws Exception {
+        assertThat(read())
+                .isNull();
+    }
+
+    @Test
+    public void rejectsTruncatedHeaders() throws Exception {
+        try {
+            read(0xC0 | PacketTags.LITERAL_DATA, 0xC5);
+            failBecauseExceptionWasNotThrown(EOFException.class);
+        } catch (EOFException e) {
+            assertThat(e.getMessage())
+                    .isEqualTo("Truncated packet header");
+        }
+    }
+
+    private static PacketHeader read(int... bytes) throws Exception {
+        final byte[] b = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            b[i] = (byte) bytes[i];
+        }
+        return PacketHeader.read(new ByteArrayInputStream(b));
+    }
+}
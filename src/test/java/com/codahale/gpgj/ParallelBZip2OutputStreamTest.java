@@ -0,0 +1,77 @@
+package com.codahale.gpgj;
+
+import org.bouncycastle.openpgp.PGPCompressedData;
+import org.bouncycastle.openpgp.PGPObjectFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class ParallelBZip2OutputStreamTest {
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        this.executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdown();
+    }
+
+    @Test
+    public void writesReadablePacketsOfSeveralBlocks() throws Exception {
+        final byte[] data = new byte[ParallelBZip2OutputStream.CHUNK_SIZE * 2 + 1234];
+        new Random().nextBytes(data);
+        for (int i = 0; i < data.length; i += 7) {
+            data[i] = 'a';
+        }
+
+        assertThat(decompress(compress(data)))
+                .isEqualTo(data);
+    }
+
+    @Test
+    public void writesReadableSmallPackets() throws Exception {
+        final byte[] data = "this is a small message".getBytes("UTF-8");
+
+        assertThat(decompress(compress(data)))
+                .isEqualTo(data);
+    }
+
+    @Test
+    public void writesEmptyPackets() throws Exception {
+        assertThat(decompress(compress(new byte[0])))
+                .isEmpty();
+    }
+
+    private byte[] compress(byte[] input) throws Exception {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ParallelBZip2OutputStream out = new ParallelBZip2OutputStream(output, executor)) {
+            out.write(input);
+        }
+        return output.toByteArray();
+    }
+
+    private byte[] decompress(byte[] packet) throws Exception {
+        final PGPCompressedData compressedData =
+                (PGPCompressedData) new PGPObjectFactory(packet).nextObject();
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream input = compressedData.getDataStream()) {
+            final byte[] b = new byte[4096];
+            int r;
+            while ((r = input.read(b)) >= 0) {
+                output.write(b, 0, r);
+            }
+        }
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,128 @@
+package com.codahale.gpgj;
+
+import org.bouncycastle.openpgp.PGPCompressedData;
+import org.bouncycastle.openpgp.PGPObjectFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class ParallelDeflaterOutputStreamTest {
+    private ExecutorService executor;
+    private byte[] data;
+
+    @Before
+    public void setUp() throws Exception {
+        this.executor = Executors.newFixedThreadPool(4);
+
+        // half random, half repetitive, so both compressible and incompressible chunks are covered
+        final Random random = new Random();
+        this.data = new byte[ParallelDeflaterOutputStream.CHUNK_SIZE * 40 + 1234];
+        for (int i = 0; i < data.length; i += 1024) {
+            if ((i / 4096) % 2 == 0) {
+                final byte[] b = new byte[Math.min(1024, data.length - i)];
+                random.nextBytes(b);
+                System.arraycopy(b, 0, data, i, b.length);
+            } else {
+                for (int j = i; j < Math.min(i + 1024, data.length); j++) {
+                    data[j] = (byte) (j % 17);
+                }
+            }
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdown();
+    }
+
+    @Test
+    public void writesReadableZlibPackets() throws Exception {
+        assertThat(decompress(compress(data, CompressionAlgorithm.ZLIB)))
+                .isEqualTo(data);
+    }
+
+    @Test
+    public void writesReadableZipPackets() throws Exception {
+        assertThat(decompress(compress(data, CompressionAlgorithm.ZIP)))
+                .isEqualTo(data);
+    }
+
+    @Test
+    public void writesEmptyPackets() throws Exception {
+        assertThat(decompress(compress(new byte[0], CompressionAlgorithm.ZLIB)))
+                .isEmpty();
+    }
+
+    @Test
+    public void compressesAlmostAsWellAsASingleDeflater() throws Exception {
+        final ByteArrayOutputStream single = new ByteArrayOutputStream();
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data);
+        deflater.finish();
+        final byte[] b = new byte[1 << 16];
+        while (!deflater.finished()) {
+            single.write(b, 0, deflater.deflate(b));
+        }
+        deflater.end();
+
+        assertThat(compress(data, CompressionAlgorithm.ZIP).length)
+                .isLessThan((int) (single.size() * 1.01));
+    }
+
+    @Test
+    public void compressesOnTheCallingThreadIfTheExecutorRejectsIt() throws Exception {
+        executor.shutdown();
+
+        assertThat(decompress(compress(data, CompressionAlgorithm.ZLIB)))
+                .isEqualTo(data);
+    }
+
+    @Test
+    public void writesValidZlibHeaders() throws Exception {
+        assertThat(ParallelDeflaterOutputStream.zlibHeader(Deflater.DEFAULT_COMPRESSION))
+                .isEqualTo(new byte[]{0x78, (byte) 0x9C});
+
+        assertThat(ParallelDeflaterOutputStream.zlibHeader(1))
+                .isEqualTo(new byte[]{0x78, 0x01});
+
+        assertThat(ParallelDeflaterOutputStream.zlibHeader(9))
+                .isEqualTo(new byte[]{0x78, (byte) 0xDA});
+    }
+
+    private byte[] compress(byte[] input, CompressionAlgorithm algorithm) throws Exception {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ParallelDeflaterOutputStream out = new ParallelDeflaterOutputStream(output,
+                                                                                 algorithm,
+                                                                                 Deflater.DEFAULT_COMPRESSION,
+                                                                                 executor,
+                                                                                 BufferPool.SHARED)) {
+            for (int i = 0; i < input.length; i += 10000) {
+                out.write(input, i, Math.min(10000, input.length - i));
+            }
+        }
+        return output.toByteArray();
+    }
+
+    private byte[] decompress(byte[] packet) throws Exception {
+        final PGPCompressedData compressedData =
+                (PGPCompressedData) new PGPObjectFactory(packet).nextObject();
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream input = compressedData.getDataStream()) {
+            final byte[] b = new byte[4096];
+            int r;
+            while ((r = input.read(b)) >= 0) {
+                output.write(b, 0, r);
+            }
+        }
+        return output.toByteArray();
+    }
+}
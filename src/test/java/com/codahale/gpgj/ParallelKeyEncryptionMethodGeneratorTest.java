@@ -0,0 +1,134 @@
+package com.codahale.gpgj;
+
+import org.bouncycastle.bcpg.BCPGOutputStream;
+import org.bouncycastle.bcpg.ContainedPacket;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.operator.PGPKeyEncryptionMethodGenerator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class ParallelKeyEncryptionMethodGeneratorTest {
+    private final Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        this.executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdown();
+    }
+
+    @Test
+    public void generatesPacketsInOrder() throws Exception {
+        final List<PGPKeyEncryptionMethodGenerator> methods = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            methods.add(new FakeMethod(i));
+        }
+
+        final byte[] sessionInfo = {1, 2, 3};
+        final List<PGPKeyEncryptionMethodGenerator> wrapped =
+                ParallelKeyEncryptionMethodGenerator.wrap(methods, executor);
+
+        for (int i = 0; i < wrapped.size(); i++) {
+            final FakePacket packet = (FakePacket) wrapped.get(i).generate(9, sessionInfo);
+
+            assertThat(packet.id)
+                    .isEqualTo(i);
+
+            assertThat(packet.sessionInfo)
+                    .isSameAs(sessionInfo);
+        }
+
+        assertThat(threads.size())
+                .isGreaterThan(1);
+    }
+
+    @Test
+    public void generatesPacketsOnTheCallingThreadIfTheExecutorIsShutDown() throws Exception {
+        executor.shutdown();
+
+        final List<PGPKeyEncryptionMethodGenerator> wrapped =
+                ParallelKeyEncryptionMethodGenerator.wrap(
+                        Arrays.<PGPKeyEncryptionMethodGenerator>asList(new FakeMethod(0), new FakeMethod(1)),
+                        executor);
+
+        assertThat(((FakePacket) wrapped.get(0).generate(9, new byte[0])).id)
+                .isEqualTo(0);
+        assertThat(((FakePacket) wrapped.get(1).generate(9, new byte[0])).id)
+                .isEqualTo(1);
+
+        assertThat(threads)
+                .containsOnly(Thread.currentThread());
+    }
+
+    @Test
+    public void propagatesErrors() throws Exception {
+        final List<PGPKeyEncryptionMethodGenerator> wrapped =
+                ParallelKeyEncryptionMethodGenerator.wrap(
+                        Arrays.<PGPKeyEncryptionMethodGenerator>asList(new FakeMethod(0), new FakeMethod(-1)),
+                        executor);
+
+        wrapped.get(0).generate(9, new byte[0]);
+        try {
+            wrapped.get(1).generate(9, new byte[0]);
+            failBecauseExceptionWasNotThrown(PGPException.class);
+        } catch (PGPException e) {
+            assertThat(e.getMessage())
+                    .isEqualTo("bad key");
+        }
+    }
+
+    private class FakeMethod extends PGPKeyEncryptionMethodGenerator {
+        private final int id;
+
+        private FakeMethod(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public ContainedPacket generate(int encAlgorithm, byte[] sessionInfo) throws PGPException {
+            threads.add(Thread.currentThread());
+            if (id < 0) {
+                throw new PGPException("bad key");
+            }
+
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                throw new PGPException("interrupted", e);
+            }
+            return new FakePacket(id, sessionInfo);
+        }
+    }
+
+    private static class FakePacket extends ContainedPacket {
+        private final int id;
+        private final byte[] sessionInfo;
+
+        private FakePacket(int id, byte[] sessionInfo) {
+            this.id = id;
+            this.sessionInfo = sessionInfo;
+        }
+
+        @Override
+        public void encode(BCPGOutputStream out) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.codahale.gpgj;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class PipelineTest {
+    private final byte[] data = new byte[Pipeline.BLOCK_SIZE * 20 + 123];
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        new Random().nextBytes(data);
+        this.executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void writesBlocksInOrder() throws Exception {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final Pipeline pipeline = new Pipeline(executor);
+
+        try (OutputStream stage = pipeline.openStage(pipeline.openStage(output))) {
+            for (int i = 0; i < data.length; i += 1000) {
+                stage.write(data, i, Math.min(1000, data.length - i));
+            }
+        }
+
+        assertThat(output.toByteArray())
+                .isEqualTo(data);
+    }
+
+    @Test
+    public void handsEachBlockToEveryStage() throws Exception {
+        final ByteArrayOutputStream first = new ByteArrayOutputStream();
+        final ByteArrayOutputStream second = new ByteArrayOutputStream();
+        final Pipeline pipeline = new Pipeline(executor);
+
+        try (OutputStream stage = pipeline.new StageOutputStream(pipeline.writingTo(first),
+                                                                 pipeline.writingTo(second))) {
+            stage.write(data);
+        }
+
+        assertThat(first.toByteArray())
+                .isEqualTo(data);
+
+        assertThat(second.toByteArray())
+                .isEqualTo(data);
+    }
+
+    @Test
+    public void makesProgressWhenTheExecutorIsBusy() throws Exception {
+        final ExecutorService busy = Executors.newSingleThreadExecutor();
+        final CountDownLatch latch = new CountDownLatch(1);
+        try {
+            busy.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        latch.await();
+                    } catch (InterruptedException ignored) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            final Pipeline pipeline = new Pipeline(busy);
+            try (OutputStream stage = pipeline.openStage(pipeline.openStage(output))) {
+                stage.write(data);
+            }
+
+            assertThat(output.toByteArray())
+                    .isEqualTo(data);
+        } finally {
+            latch.countDown();
+            busy.shutdown();
+        }
+    }
+
+    @Test
+    public void runsStagesOnTheCallingThreadIfTheExecutorRejectsThem() throws Exception {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        executor.shutdown();
+        final Pipeline pipeline = new Pipeline(executor);
+
+        try (OutputStream stage = pipeline.openStage(output)) {
+            stage.write(data);
+        }
+
+        assertThat(output.toByteArray())
+                .isEqualTo(data);
+    }
+
+    @Test
+    public void reportsFailures() throws Exception {
+        final Pipeline pipeline = new Pipeline(executor);
+        final OutputStream stage = pipeline.new StageOutputStream(pipeline.new Stage() {
+            @Override
+            protected void process(Pipeline.Block block) throws IOException {
+                throw new IOException("nope");
+            }
+        });
+
+        try {
+            stage.write(data);
+            stage.close();
+            failBecauseExceptionWasNotThrown(IOException.class);
+        } catch (IOException e) {
+            assertThat(e.getMessage())
+                    .isEqualTo("nope");
+        }
+    }
+
+    @Test
+    public void abandonsStagesWithoutClosingTheirOutput() throws Exception {
+        final AtomicInteger borrowed = new AtomicInteger();
+        final Pipeline pipeline = new Pipeline(executor, new BufferPool(4) {
+            @Override
+            byte[] acquire(int size) {
+                borrowed.incrementAndGet();
+                return super.acquire(size);
+            }
+
+            @Override
+            void release(byte[] buffer) {
+                borrowed.decrementAndGet();
+                super.release(buffer);
+            }
+        });
+        final AtomicBoolean closed = new AtomicBoolean();
+        final ByteArrayOutputStream output = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        };
+
+        final Pipeline.StageOutputStream stage = (Pipeline.StageOutputStream) pipeline.openStage(output);
+        stage.write(data, 0, data.length - 1000);
+        stage.abandon();
+
+        assertThat(closed.get())
+                .isFalse();
+
+        assertThat(output.size())
+                .isLessThan(data.length);
+
+        assertThat(borrowed.get())
+                .isZero();
+    }
+
+    @Test
+    public void readsAheadInOrder() throws Exception {
+        final ByteArrayOutputStream hashed = new ByteArrayOutputStream();
+        final Pipeline pipeline = new Pipeline(executor);
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream input = pipeline.new StageInputStream(
+                pipeline.new StageInputStream(new ByteArrayInputStream(data)),
+                pipeline.writingTo(hashed))) {
+            assertThat(input.read())
+                    .isEqualTo(data[0] & 0xFF);
+            output.write(data[0]);
+
+            final byte[] b = new byte[1000];
+            int r;
+            while ((r = input.read(b)) >= 0) {
+                output.write(b, 0, r);
+            }
+        }
+
+        assertThat(output.toByteArray())
+                .isEqualTo(data);
+
+        assertThat(hashed.toByteArray())
+                .isEqualTo(data);
+    }
+
+    @Test
+    public void readsAheadWhenTheExecutorRejectsIt() throws Exception {
+        executor.shutdown();
+        final Pipeline pipeline = new Pipeline(executor);
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream input = pipeline.new StageInputStream(new ByteArrayInputStream(data))) {
+            final byte[] b = new byte[Pipeline.BLOCK_SIZE];
+            int r;
+            while ((r = input.read(b)) >= 0) {
+                output.write(b, 0, r);
+            }
+        }
+
+        assertThat(output.toByteArray())
+                .isEqualTo(data);
+    }
+
+    @Test
+    public void reportsReadFailures() throws Exception {
+        final Pipeline pipeline = new Pipeline(executor);
+        final InputStream input = pipeline.new StageInputStream(new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("nope");
+            }
+        });
+
+        try {
+            input.read();
+            failBecauseExceptionWasNotThrown(IOException.class);
+        } catch (IOException e) {
+            assertThat(e.getMessage())
+                    .isEqualTo("nope");
+        }
+    }
+
+    @Test
+    public void reusesBlocks() throws Exception {
+        final Pipeline pipeline = new Pipeline(executor, new BufferPool(4));
+        final Pipeline.Block block = pipeline.allocate();
+        final byte[] buffer = block.getData();
+        block.retain();
+        block.release();
+        block.release();
+
+        assertThat(pipeline.allocate().getData())
+                .isSameAs(buffer);
+    }
+}
@@ -0,0 +1,90 @@
+package com.codahale.gpgj;
+
+import org.bouncycastle.openpgp.operator.PGPKeyEncryptionMethodGenerator;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.FileInputStream;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class RecipientSetTest extends BCTest {
+    private KeySet keySet;
+    private KeySet anotherKeySet;
+
+    @Before
+    public void setUp() throws Exception {
+        try (FileInputStream keyRingFile = new FileInputStream("src/test/resources/secret-keyring.gpg")) {
+            this.keySet = new KeySetReader().read(keyRingFile);
+        }
+
+        try (FileInputStream anotherKeyRingFile = new FileInputStream("src/test/resources/another-secret-keyring.gpg")) {
+            this.anotherKeySet = new KeySetReader().read(anotherKeyRingFile);
+        }
+    }
+
+    @Test
+    public void removesDuplicateRecipients() throws Exception {
+        final RecipientSet recipients =
+                new RecipientSet(Arrays.asList(keySet, anotherKeySet, keySet));
+
+        assertThat(recipients.size())
+                .isEqualTo(2);
+
+        assertThat(recipients)
+                .containsExactly(keySet, anotherKeySet);
+    }
+
+    @Test
+    public void containsRecipientsBySubKey() throws Exception {
+        final RecipientSet recipients = new RecipientSet(Arrays.asList(keySet));
+
+        assertThat(recipients.contains(keySet))
+                .isTrue();
+
+        assertThat(recipients.contains(anotherKeySet))
+                .isFalse();
+    }
+
+    @Test
+    public void putsTheGivenRecipientLast() throws Exception {
+        final RecipientSet recipients = new RecipientSet(Arrays.asList(keySet, anotherKeySet));
+
+        assertThat(recipients.withLast(keySet))
+                .containsExactly(anotherKeySet, keySet);
+    }
+
+    @Test
+    public void sizesSessionKeyPackets() throws Exception {
+        final RecipientSet recipients = new RecipientSet(Arrays.asList(keySet, anotherKeySet));
+        final byte[] sessionInfo = new byte[35];
+        new SecureRandom().nextBytes(sessionInfo);
+
+        int size = 0;
+        for (PGPKeyEncryptionMethodGenerator method : recipients.getMethods(new SecureRandom())) {
+            size += method.generate(SymmetricAlgorithm.AES_256.value(), sessionInfo).getEncoded().length;
+        }
+
+        // an encrypted session key with leading zero bytes is slightly shorter
+        assertThat(recipients.getSessionKeyPacketSize())
+                .isGreaterThanOrEqualTo(size)
+                .isLessThanOrEqualTo(size + 4);
+    }
+
+    @Test
+    public void rejectsRecipientsWhichCannotEncrypt() throws Exception {
+        final MasterKey masterKey = keySet.getMasterKey();
+        final KeySet signOnly = new KeySet(masterKey, new SubKey(masterKey.getSecretKey(), masterKey));
+
+        try {
+            new RecipientSet(Arrays.asList(signOnly));
+            failBecauseExceptionWasNotThrown(CryptographicException.class);
+        } catch (CryptographicException e) {
+            assertThat(e.getMessage())
+                    .endsWith("cannot encrypt data");
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.codahale.gpgj;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class S2KIterationsTest extends BCTest {
+    @Test
+    public void hasTheSmallestEncodableCountAsTheMinimum() throws Exception {
+        assertThat(S2KIterations.MINIMUM)
+                .isEqualTo(1024);
+    }
+
+    @Test
+    public void hasTheLargestEncodableCountAsTheMaximum() throws Exception {
+        assertThat(S2KIterations.MAXIMUM)
+                .isEqualTo(65011712);
+    }
+
+    @Test
+    public void hasBouncyCastlesCountAsTheDefault() throws Exception {
+        assertThat(S2KIterations.DEFAULT)
+                .isEqualTo(65536);
+    }
+
+    @Test
+    public void encodesExactCounts() throws Exception {
+        assertThat(S2KIterations.encode(65536))
+                .isEqualTo(0x60);
+    }
+
+    @Test
+    public void roundsCountsUp() throws Exception {
+        assertThat(S2KIterations.decode(S2KIterations.encode(65537)))
+                .isEqualTo(69632);
+    }
+
+    @Test
+    public void clampsCountsToTheEncodableRange() throws Exception {
+        assertThat(S2KIterations.encode(1))
+                .isEqualTo(0x00);
+
+        assertThat(S2KIterations.encode(Long.MAX_VALUE))
+                .isEqualTo(0xFF);
+    }
+
+    @Test
+    public void calibratesLongerTargetsToLargerCounts() throws Exception {
+        final long fast = S2KIterations.calibrate(1, TimeUnit.MILLISECONDS);
+        final long slow = S2KIterations.calibrate(100, TimeUnit.MILLISECONDS);
+
+        assertThat(fast)
+                .isGreaterThanOrEqualTo(S2KIterations.MINIMUM);
+
+        assertThat(slow)
+                .isGreaterThan(fast)
+                .isLessThanOrEqualTo(S2KIterations.MAXIMUM);
+    }
+}
@@ -0,0 +1,122 @@
+package com.codahale.gpgj;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.operator.PGPDataDecryptor;
+import org.bouncycastle.openpgp.operator.PublicKeyDataDecryptorFactory;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class SessionKeyCacheTest {
+    private final byte[] sessionData =
+            new SessionKey(SymmetricAlgorithm.AES_128, new byte[16]).toSessionData();
+    private final BigInteger[] encryptedKey = {BigInteger.TEN};
+    private final FakeClock clock = new FakeClock();
+    private final CountingFactory delegate = new CountingFactory();
+    private final SessionKeyCache cache =
+            new SessionKeyCache(10, 1, 10, TimeUnit.MINUTES, clock);
+    private final PublicKeyDataDecryptorFactory factory = cache.wrap(delegate, 1234);
+
+    @Test
+    public void isEmptyByDefault() throws Exception {
+        assertThat(cache.size())
+                .isZero();
+
+        assertThat(cache.getHits())
+                .isZero();
+
+        assertThat(cache.getMisses())
+                .isZero();
+    }
+
+    @Test
+    public void recoversSessionKeysOnlyOnce() throws Exception {
+        assertThat(factory.recoverSessionData(1, encryptedKey))
+                .isEqualTo(sessionData);
+        assertThat(factory.recoverSessionData(1, encryptedKey))
+                .isEqualTo(sessionData);
+
+        assertThat(delegate.recoveries)
+                .isEqualTo(1);
+
+        assertThat(cache.getHits())
+                .isEqualTo(1);
+
+        assertThat(cache.getMisses())
+                .isEqualTo(1);
+    }
+
+    @Test
+    public void returnsACopyOfTheSessionData() throws Exception {
+        factory.recoverSessionData(1, encryptedKey)[0] = 0;
+
+        assertThat(factory.recoverSessionData(1, encryptedKey))
+                .isEqualTo(sessionData);
+    }
+
+    @Test
+    public void distinguishesPackets() throws Exception {
+        factory.recoverSessionData(1, encryptedKey);
+        factory.recoverSessionData(1, new BigInteger[]{BigInteger.ONE});
+        factory.recoverSessionData(16, encryptedKey);
+
+        assertThat(delegate.recoveries)
+                .isEqualTo(3);
+    }
+
+    @Test
+    public void distinguishesRecipients() throws Exception {
+        factory.recoverSessionData(1, encryptedKey);
+        cache.wrap(delegate, 5678).recoverSessionData(1, encryptedKey);
+
+        assertThat(delegate.recoveries)
+                .isEqualTo(2);
+    }
+
+    @Test
+    public void expiresSessionKeys() throws Exception {
+        factory.recoverSessionData(1, encryptedKey);
+        clock.advance(2, TimeUnit.MINUTES);
+        factory.recoverSessionData(1, encryptedKey);
+
+        assertThat(delegate.recoveries)
+                .isEqualTo(2);
+    }
+
+    @Test
+    public void doesNotCacheInvalidSessionData() throws Exception {
+        sessionData[sessionData.length - 1] ^= 1;
+        factory.recoverSessionData(1, encryptedKey);
+
+        assertThat(cache.size())
+                .isZero();
+    }
+
+    @Test
+    public void canBeCleared() throws Exception {
+        factory.recoverSessionData(1, encryptedKey);
+        cache.clear();
+        factory.recoverSessionData(1, encryptedKey);
+
+        assertThat(delegate.recoveries)
+                .isEqualTo(2);
+    }
+
+    private class CountingFactory implements PublicKeyDataDecryptorFactory {
+        private int recoveries;
+
+        @Override
+        public byte[] recoverSessionData(int keyAlgorithm, BigInteger[] secKeyData) throws PGPException {
+            recoveries++;
+            return sessionData.clone();
+        }
+
+        @Override
+        public PGPDataDecryptor createDataDecryptor(boolean withIntegrityPacket, int encAlgorithm, byte[] key) throws PGPException {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.codahale.gpgj;
+
+import org.junit.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class SessionKeyTest {
+    private final SessionKey sessionKey =
+            new SessionKey(SymmetricAlgorithm.AES_128, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, (byte) 0xFF});
+
+    @Test
+    public void isEncodedLikeGnuPG() throws Exception {
+        assertThat(sessionKey.encode())
+                .isEqualTo("7:0102030405060708090A0B0C0D0E0FFF");
+    }
+
+    @Test
+    public void isParsedLikeGnuPG() throws Exception {
+        final SessionKey parsed = SessionKey.parse("7:0102030405060708090a0b0c0d0e0fff");
+
+        assertThat(parsed.getAlgorithm())
+                .isEqualTo(SymmetricAlgorithm.AES_128);
+
+        assertThat(parsed.getKey())
+                .isEqualTo(sessionKey.getKey());
+    }
+
+    @Test
+    public void rejectsMalformedKeys() throws Exception {
+        for (String encoded : new String[]{"", "7", "700:01", "x:01", "7:0G"}) {
+            try {
+                SessionKey.parse(encoded);
+                failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+            } catch (IllegalArgumentException e) {
+                assertThat(e.getMessage())
+                        .isEqualTo("Invalid session key");
+            }
+        }
+    }
+
+    @Test
+    public void roundTripsThroughSessionData() throws Exception {
+        final byte[] sessionData = sessionKey.toSessionData();
+
+        assertThat(sessionData.length)
+                .isEqualTo(19);
+
+        assertThat(sessionData[0])
+                .isEqualTo((byte) 7);
+
+        final SessionKey parsed = SessionKey.fromSessionData(sessionData);
+
+        assertThat(parsed.encode())
+                .isEqualTo(sessionKey.encode());
+    }
+
+    @Test
+    public void rejectsSessionDataWithABadChecksum() throws Exception {
+        final byte[] sessionData = sessionKey.toSessionData();
+        sessionData[sessionData.length - 1] ^= 1;
+
+        try {
+            SessionKey.fromSessionData(sessionData);
+            failBecauseExceptionWasNotThrown(CryptographicException.class);
+        } catch (CryptographicException e) {
+            assertThat(e.getMessage())
+                    .isEqualTo("Invalid session key checksum");
+        }
+    }
+
+    @Test
+    public void canBeDestroyed() throws Exception {
+        final SessionKey key = SessionKey.parse(sessionKey.encode());
+        key.destroy();
+
+        assertThat(key.getKey())
+                .isEqualTo(new byte[16]);
+    }
+
+    @Test
+    public void doesNotRevealTheKeyInItsStringForm() throws Exception {
+        assertThat(sessionKey.toString())
+                .isEqualTo("SessionKey[AES-128]");
+    }
+}
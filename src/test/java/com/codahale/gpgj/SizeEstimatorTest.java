@@ -0,0 +1,146 @@
+package com.codahale.gpgj;
+
+import org.junit.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class SizeEstimatorTest {
+    private static final int LEVEL = MessageWriter.DEFAULT_COMPRESSION;
+    private final SizeEstimator estimator = new SizeEstimator();
+
+    @Test
+    public void usesTheDefaultRatioUntilItHasEnoughSamples() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            estimator.record(CompressionAlgorithm.ZLIB, LEVEL, 1000, 100);
+        }
+
+        assertThat(estimator.getRatio(CompressionAlgorithm.ZLIB, LEVEL))
+                .isEqualTo(SizeEstimator.DEFAULT_RATIO);
+    }
+
+    @Test
+    public void learnsCompressionRatios() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            estimator.record(CompressionAlgorithm.ZLIB, LEVEL, 1000, 100);
+        }
+
+        assertThat(estimator.getRatio(CompressionAlgorithm.ZLIB, LEVEL))
+                .isGreaterThanOrEqualTo(0.1)
+                .isLessThan(0.15);
+
+        assertThat(estimator.estimate(CompressionAlgorithm.ZLIB, LEVEL, 10000))
+                .isGreaterThanOrEqualTo(1000)
+                .isLessThan(1500);
+
+        assertThat(estimator.getSamples(CompressionAlgorithm.ZLIB, LEVEL))
+                .isEqualTo(100);
+    }
+
+    @Test
+    public void learnsEachAlgorithmSeparately() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            estimator.record(CompressionAlgorithm.ZLIB, LEVEL, 1000, 100);
+            estimator.record(CompressionAlgorithm.BZIP2, LEVEL, 1000, 1000);
+        }
+
+        assertThat(estimator.getRatio(CompressionAlgorithm.ZLIB, LEVEL))
+                .isLessThan(0.15);
+
+        assertThat(estimator.getRatio(CompressionAlgorithm.BZIP2, LEVEL))
+                .isGreaterThan(1.0);
+
+        assertThat(estimator.getSamples(CompressionAlgorithm.ZIP, LEVEL))
+                .isZero();
+    }
+
+    @Test
+    public void learnsEachLevelSeparately() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            estimator.record(CompressionAlgorithm.ZLIB, 9, 1000, 100);
+            estimator.record(CompressionAlgorithm.ZLIB, 0, 1000, 1000);
+            estimator.record(CompressionAlgorithm.ZLIB, MessageWriter.ADAPTIVE_COMPRESSION, 1000, 1000);
+        }
+
+        assertThat(estimator.getRatio(CompressionAlgorithm.ZLIB, 9))
+                .isLessThan(0.15);
+
+        assertThat(estimator.getRatio(CompressionAlgorithm.ZLIB, 0))
+                .isGreaterThan(1.0);
+
+        assertThat(estimator.getSamples(CompressionAlgorithm.ZLIB, MessageWriter.DEFAULT_COMPRESSION))
+                .isZero();
+    }
+
+    @Test
+    public void learnsEquivalentLevelsTogether() throws Exception {
+        estimator.record(CompressionAlgorithm.ZLIB, 6, 1000, 100);
+        estimator.record(CompressionAlgorithm.BZIP2, 1, 1000, 100);
+
+        assertThat(estimator.getSamples(CompressionAlgorithm.ZLIB, MessageWriter.DEFAULT_COMPRESSION))
+                .isEqualTo(1);
+
+        assertThat(estimator.getSamples(CompressionAlgorithm.BZIP2, 9))
+                .isEqualTo(1);
+
+        assertThat(estimator.getSamples(CompressionAlgorithm.BZIP2, MessageWriter.ADAPTIVE_COMPRESSION))
+                .isZero();
+    }
+
+    @Test
+    public void estimatesFromAHighPercentile() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            estimator.record(CompressionAlgorithm.ZLIB, LEVEL, 1000, (i % 5 == 0) ? 500 : 100);
+        }
+
+        assertThat(estimator.getRatio(CompressionAlgorithm.ZLIB, LEVEL))
+                .isGreaterThan(0.5);
+    }
+
+    @Test
+    public void forgetsOldRatios() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            estimator.record(CompressionAlgorithm.ZLIB, LEVEL, 1000, 1000);
+        }
+
+        for (int i = 0; i < 200; i++) {
+            estimator.record(CompressionAlgorithm.ZLIB, LEVEL, 1000, 100);
+        }
+
+        assertThat(estimator.getRatio(CompressionAlgorithm.ZLIB, LEVEL))
+                .isLessThan(0.15);
+    }
+
+    @Test
+    public void keepsLearningAfterManySamples() throws Exception {
+        for (int i = 0; i < 100000; i++) {
+            estimator.record(CompressionAlgorithm.ZLIB, LEVEL, 1000, 1000);
+        }
+
+        for (int i = 0; i < 200; i++) {
+            estimator.record(CompressionAlgorithm.ZLIB, LEVEL, 1000, 100);
+        }
+
+        assertThat(estimator.getRatio(CompressionAlgorithm.ZLIB, LEVEL))
+                .isLessThan(0.15);
+    }
+
+    @Test
+    public void rejectsInvalidLevels() throws Exception {
+        try {
+            estimator.getRatio(CompressionAlgorithm.ZLIB, 10);
+            failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage())
+                    .isEqualTo("Invalid compression level: 10");
+        }
+    }
+
+    @Test
+    public void ignoresEmptyBodies() throws Exception {
+        estimator.record(CompressionAlgorithm.ZLIB, LEVEL, 0, 100);
+
+        assertThat(estimator.getSamples(CompressionAlgorithm.ZLIB, LEVEL))
+                .isZero();
+    }
+}
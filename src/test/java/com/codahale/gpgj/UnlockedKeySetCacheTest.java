@@ -0,0 +1,118 @@
+package com.codahale.gpgj;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.FileInputStream;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class UnlockedKeySetCacheTest extends BCTest {
+    private final FakeClock clock = new FakeClock();
+    private final UnlockedKeySetCache cache = new UnlockedKeySetCache(1, 5, 60, TimeUnit.MINUTES,
+                                                                      clock, new SecureRandom());
+    private KeySet keySet;
+    private KeySet anotherKeySet;
+
+    @Before
+    public void setUp() throws Exception {
+        try (FileInputStream file = new FileInputStream("src/test/resources/secret-keyring.gpg")) {
+            this.keySet = new KeySetReader().read(file);
+        }
+
+        try (FileInputStream file = new FileInputStream("src/test/resources/another-secret-keyring.gpg")) {
+            this.anotherKeySet = new KeySetReader().read(file);
+        }
+    }
+
+    @Test
+    public void cachesUnlockedKeySets() throws Exception {
+        final UnlockedKeySet unlocked = cache.unlock(keySet, "test".toCharArray());
+
+        assertThat(cache.unlock(keySet, "test".toCharArray()))
+                .isSameAs(unlocked);
+    }
+
+    @Test
+    public void doesNotUnlockWithTheWrongPassphrase() throws Exception {
+        cache.unlock(keySet, "test".toCharArray());
+
+        try {
+            cache.unlock(keySet, "nope".toCharArray());
+            failBecauseExceptionWasNotThrown(CryptographicException.class);
+        } catch (CryptographicException e) {
+            assertThat(e.getMessage())
+                    .isEqualTo("Incorrect passphrase");
+        }
+    }
+
+    @Test
+    public void doesNotUnlockARelockedKeySetWithTheOldPassphrase() throws Exception {
+        final UnlockedKeySet unlocked = cache.unlock(keySet, "test".toCharArray());
+        final KeySet relocked = unlocked.relock("test".toCharArray(), "new".toCharArray(),
+                                                new SecureRandom());
+
+        try {
+            cache.unlock(relocked, "test".toCharArray());
+            failBecauseExceptionWasNotThrown(CryptographicException.class);
+        } catch (CryptographicException e) {
+            assertThat(e.getMessage())
+                    .isEqualTo("Incorrect passphrase");
+        }
+    }
+
+    @Test
+    public void expiresIdleEntries() throws Exception {
+        final UnlockedKeySet unlocked = cache.unlock(keySet, "test".toCharArray());
+
+        clock.advance(4, TimeUnit.MINUTES);
+        assertThat(cache.unlock(keySet, "test".toCharArray()))
+                .isSameAs(unlocked);
+
+        clock.advance(5, TimeUnit.MINUTES);
+        assertThat(cache.unlock(keySet, "test".toCharArray()))
+                .isNotSameAs(unlocked);
+    }
+
+    @Test
+    public void expiresOldEntries() throws Exception {
+        final UnlockedKeySet unlocked = cache.unlock(keySet, "test".toCharArray());
+
+        for (int i = 0; i < 14; i++) {
+            clock.advance(4, TimeUnit.MINUTES);
+            assertThat(cache.unlock(keySet, "test".toCharArray()))
+                    .isSameAs(unlocked);
+        }
+
+        clock.advance(4, TimeUnit.MINUTES);
+        assertThat(cache.unlock(keySet, "test".toCharArray()))
+                .isNotSameAs(unlocked);
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedEntries() throws Exception {
+        final UnlockedKeySet unlocked = cache.unlock(keySet, "test".toCharArray());
+        cache.unlock(anotherKeySet, "test2".toCharArray());
+
+        assertThat(cache.size())
+                .isEqualTo(1);
+
+        assertThat(cache.unlock(keySet, "test".toCharArray()))
+                .isNotSameAs(unlocked);
+    }
+
+    @Test
+    public void invalidatesKeySets() throws Exception {
+        final UnlockedKeySet unlocked = cache.unlock(keySet, "test".toCharArray());
+        cache.invalidate(keySet);
+
+        assertThat(cache.size())
+                .isZero();
+
+        assertThat(cache.unlock(keySet, "test".toCharArray()))
+                .isNotSameAs(unlocked);
+    }
+}
@@ -5,6 +5,8 @@ import org.junit.Test;
 
 import java.io.FileInputStream;
 import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.fest.assertions.api.Assertions.assertThat;
 import static org.fest.assertions.api.Assertions.failBecauseExceptionWasNotThrown;
@@ -48,4 +50,46 @@ public class UnlockedKeySetTest extends BCTest {
         assertThat(newKeySet.unlock("yes".toCharArray()))
                 .isNotNull();
     }
+
+    @Test
+    public void reLockedKeySetsCanBeUnlockedInParallel() throws Exception {
+        final KeySet newKeySet = unlockedKeySet.relock("test".toCharArray(), "yes".toCharArray(),
+                                                       new SecureRandom());
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertThat(newKeySet.unlock("yes".toCharArray(), executor).getUnlockedSubKey().getKeyID())
+                    .isEqualTo(0xA3A5D038FF30574EL);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void reLockingKeepsTheS2KIterationCount() throws Exception {
+        final long s2kIterationCount = unlockedKeySet.getMasterKey().getS2KIterationCount();
+        final KeySet newKeySet = unlockedKeySet.relock("test".toCharArray(), "yes".toCharArray(),
+                                                       new SecureRandom());
+
+        assertThat(newKeySet.getMasterKey().getS2KIterationCount())
+                .isEqualTo(s2kIterationCount);
+
+        assertThat(newKeySet.getSubKey().getS2KIterationCount())
+                .isEqualTo(s2kIterationCount);
+    }
+
+    @Test
+    public void canReLockTheKeySetWithADifferentS2KIterationCount() throws Exception {
+        final KeySet newKeySet = unlockedKeySet.relock("test".toCharArray(), "yes".toCharArray(),
+                                                       new SecureRandom(), 1024);
+
+        assertThat(newKeySet.getMasterKey().getS2KIterationCount())
+                .isEqualTo(1024);
+
+        assertThat(newKeySet.getSubKey().getS2KIterationCount())
+                .isEqualTo(1024);
+
+        assertThat(newKeySet.unlock("yes".toCharArray()))
+                .isNotNull();
+    }
 }